@@ -0,0 +1,215 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Converts Segment `airdate` values into Nielsen's {@code yyyyMMdd HH:mm:ss} format.
+ *
+ * <p>ISO-8601 dates are handled by a hand-written scanner that makes a single pass over the input
+ * and writes straight into the output buffer. Accepted forms are {@code yyyy-MM-dd} and {@code
+ * yyyy-MM-dd'T'HH:mm:ss}, optionally followed by a fraction of any precision (which is dropped) and
+ * a zone designator ({@code Z}, {@code +/-HH:mm}, {@code +/-HHmm} or {@code +/-HH}). Times with an
+ * offset are normalised to UTC, matching how {@code Z} timestamps have always been reported.
+ */
+final class AirdateFormatter {
+  private static final String NIELSEN_PATTERN = "yyyyMMdd HH:mm:ss";
+  private static final int MINUTES_PER_DAY = 24 * 60;
+
+  // SimpleDateFormat is not thread-safe, so each thread gets its own instance.
+  private static final ThreadLocal<SimpleDateFormat> FORMATTER =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return new SimpleDateFormat(NIELSEN_PATTERN);
+        }
+      };
+
+  private AirdateFormatter() {
+    throw new AssertionError("No instances");
+  }
+
+  /**
+   * Formats an ISO-8601 date or date-time.
+   *
+   * @return the Nielsen formatted date, or null if {@code airdate} is not an ISO-8601 date
+   */
+  static String formatIso(String airdate) {
+    if (airdate == null || airdate.length() < 10) {
+      return null;
+    }
+    int length = airdate.length();
+
+    int year = digits(airdate, 0, 4);
+    int month = digits(airdate, 5, 2);
+    int day = digits(airdate, 8, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+      return null;
+    }
+    if (airdate.charAt(4) != '-' || airdate.charAt(7) != '-') {
+      return null;
+    }
+
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    if (length > 10) {
+      // yyyy-MM-ddTHH:mm:ss is 19 characters
+      if (length < 19 || (airdate.charAt(10) != 'T' && airdate.charAt(10) != 't')) {
+        return null;
+      }
+      hour = digits(airdate, 11, 2);
+      minute = digits(airdate, 14, 2);
+      second = digits(airdate, 17, 2);
+      if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+        return null;
+      }
+      if (airdate.charAt(13) != ':' || airdate.charAt(16) != ':') {
+        return null;
+      }
+
+      int i = 19;
+      if (i < length && airdate.charAt(i) == '.') {
+        int fractionStart = ++i;
+        while (i < length && isDigit(airdate.charAt(i))) {
+          i++;
+        }
+        if (i == fractionStart) {
+          return null;
+        }
+      }
+
+      int offsetMinutes = 0;
+      if (i < length) {
+        char zone = airdate.charAt(i);
+        if (zone == 'Z' || zone == 'z') {
+          i++;
+        } else if (zone == '+' || zone == '-') {
+          int offsetHours = digits(airdate, i + 1, 2);
+          if (offsetHours < 0) {
+            return null;
+          }
+          i += 3;
+          int offsetMins = 0;
+          if (i < length) {
+            if (airdate.charAt(i) == ':') {
+              i++;
+            }
+            offsetMins = digits(airdate, i, 2);
+            i += 2;
+          }
+          if (offsetHours > 23 || offsetMins < 0 || offsetMins > 59) {
+            return null;
+          }
+          offsetMinutes = offsetHours * 60 + offsetMins;
+          if (zone == '-') {
+            offsetMinutes = -offsetMinutes;
+          }
+        } else {
+          return null;
+        }
+      }
+      if (i != length) {
+        return null;
+      }
+
+      if (offsetMinutes != 0) {
+        int minuteOfDay = hour * 60 + minute - offsetMinutes;
+        if (minuteOfDay < 0) {
+          minuteOfDay += MINUTES_PER_DAY;
+          if (--day < 1) {
+            if (--month < 1) {
+              month = 12;
+              year--;
+            }
+            day = daysInMonth(year, month);
+          }
+        } else if (minuteOfDay >= MINUTES_PER_DAY) {
+          minuteOfDay -= MINUTES_PER_DAY;
+          if (++day > daysInMonth(year, month)) {
+            day = 1;
+            if (++month > 12) {
+              month = 1;
+              year++;
+            }
+          }
+        }
+        hour = minuteOfDay / 60;
+        minute = minuteOfDay % 60;
+      }
+    }
+
+    if (year < 0 || year > 9999) {
+      return null;
+    }
+    char[] out = new char[17];
+    write(out, 0, year, 4);
+    write(out, 4, month, 2);
+    write(out, 6, day, 2);
+    out[8] = ' ';
+    write(out, 9, hour, 2);
+    out[11] = ':';
+    write(out, 12, minute, 2);
+    out[14] = ':';
+    write(out, 15, second, 2);
+    return new String(out);
+  }
+
+  /**
+   * Re-formats a date that is already close to Nielsen's format, as the integration has always done
+   * for values that are not ISO-8601 dates. Safe to call from any thread.
+   *
+   * @return the formatted date, or null if {@code airdate} could not be parsed
+   */
+  static String formatDate(String airdate) {
+    SimpleDateFormat formatter = FORMATTER.get();
+    Date date = formatter.parse(airdate, new ParsePosition(0));
+    if (date == null) {
+      return null;
+    }
+    return formatter.format(date);
+  }
+
+  /** Parses {@code count} ASCII digits starting at {@code start}, or returns -1. */
+  private static int digits(String s, int start, int count) {
+    if (start + count > s.length()) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = s.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static void write(char[] out, int start, int value, int count) {
+    for (int i = start + count - 1; i >= start; i--) {
+      out[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+}
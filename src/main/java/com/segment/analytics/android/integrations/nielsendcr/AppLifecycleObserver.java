@@ -0,0 +1,36 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
+
+/**
+ * Suspends playhead ticks while the app is in the background and resumes them when it returns, so
+ * a player that is backgrounded without a pause event does not keep waking the device every
+ * second. It is registered once on the process lifecycle; the integration it drives is swapped
+ * whenever the factory builds a new one.
+ */
+class AppLifecycleObserver implements LifecycleObserver {
+  private volatile NielsenDCRIntegration integration;
+
+  /** Drives {@code integration} from now on, or nothing if it is null. */
+  void attach(NielsenDCRIntegration integration) {
+    this.integration = integration;
+  }
+
+  @OnLifecycleEvent(Lifecycle.Event.ON_START)
+  void onStart() {
+    NielsenDCRIntegration integration = this.integration;
+    if (integration != null) {
+      integration.onForeground();
+    }
+  }
+
+  @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+  void onStop() {
+    NielsenDCRIntegration integration = this.integration;
+    if (integration != null) {
+      integration.onBackground();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.integrations.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AppSdk instances for apps that report to more than one Nielsen appid. The instance for the
+ * appid in the integration settings always exists; instances for other appids are created on
+ * first use, at most {@code maxSize} at a time.
+ *
+ * <p>Sessions hold on to an instance from {@link #acquire} until {@link #release}. An instance no
+ * session holds is closed by the first call to the pool after it has been idle for the idle
+ * timeout, or sooner when its slot is needed for another appid. Instances are created while
+ * holding the pool's lock, so two threads routing to a new appid at once never create it twice.
+ */
+class AppSdkPool {
+  interface Creator {
+    /** Returns a new AppSdk for {@code appId}, or null if it could not be created. */
+    AppSdk create(String appId);
+  }
+
+  private final String defaultAppId;
+  private final AppSdk defaultAppSdk;
+  private final int maxSize;
+  private final long idleTimeoutNanos;
+  private final Creator creator;
+  private final Logger logger;
+  // in least recently used order
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param maxSize instances kept for appids other than {@code defaultAppId}
+   * @param idleTimeoutMillis how long an instance no session holds is kept after its last use
+   */
+  AppSdkPool(
+      String defaultAppId,
+      AppSdk defaultAppSdk,
+      int maxSize,
+      long idleTimeoutMillis,
+      Creator creator,
+      Logger logger) {
+    this.defaultAppId = defaultAppId;
+    this.defaultAppSdk = defaultAppSdk;
+    this.maxSize = maxSize;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    this.creator = creator;
+    this.logger = logger;
+  }
+
+  /** Returns the instance for {@code appId} and marks it as held by a session. */
+  synchronized AppSdk acquire(String appId) {
+    Entry entry = entry(appId);
+    if (entry == null) {
+      return defaultAppSdk;
+    }
+    entry.holders++;
+    return entry.appSdk;
+  }
+
+  /** Marks an instance returned by {@link #acquire} as no longer held by the session. */
+  synchronized void release(AppSdk appSdk) {
+    long now = nanoTime();
+    for (Entry entry : entries.values()) {
+      if (entry.appSdk == appSdk) {
+        entry.holders--;
+        entry.lastUsedNanos = now;
+        break;
+      }
+    }
+    closeIdle(now);
+  }
+
+  /** Returns the instance for {@code appId} for a one-off call, such as a screen. */
+  synchronized AppSdk get(String appId) {
+    Entry entry = entry(appId);
+    return entry == null ? defaultAppSdk : entry.appSdk;
+  }
+
+  /** Number of instances for appids other than the default one. */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /** Returns the entry for {@code appId}, creating it if needed, or null for the default. */
+  private Entry entry(String appId) {
+    long now = nanoTime();
+    closeIdle(now);
+    if (appId == null || appId.isEmpty() || appId.equals(defaultAppId)) {
+      return null;
+    }
+    Entry entry = entries.get(appId);
+    if (entry == null) {
+      if (entries.size() >= maxSize) {
+        closeLeastRecentlyUsed();
+      }
+      if (entries.size() >= maxSize) {
+        logger.error(
+            null, "All %s AppSdk instances are in use, sending %s to the default.", maxSize, appId);
+        return null;
+      }
+      AppSdk appSdk = creator.create(appId);
+      if (appSdk == null) {
+        return null;
+      }
+      entry = new Entry(appSdk);
+      entries.put(appId, entry);
+    }
+    entry.lastUsedNanos = now;
+    return entry;
+  }
+
+  /** Closes the instances no session holds that have been idle for the idle timeout. */
+  private void closeIdle(long now) {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (entry.holders == 0 && now - entry.lastUsedNanos >= idleTimeoutNanos) {
+        it.remove();
+        entry.appSdk.close();
+      }
+    }
+  }
+
+  /** Closes the least recently used instance no session holds, if there is one. */
+  private void closeLeastRecentlyUsed() {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      if (entry.holders == 0) {
+        it.remove();
+        entry.appSdk.close();
+        return;
+      }
+    }
+  }
+
+  private static class Entry {
+    final AppSdk appSdk;
+    int holders;
+    long lastUsedNanos;
+
+    Entry(AppSdk appSdk) {
+      this.appSdk = appSdk;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONObject;
+
+/**
+ * What one AppSdk instance has last been told, shared by every session and screen that calls it.
+ * The AppSdk measures one thing at a time, so whether a call can be skipped depends on the calls
+ * made on the instance, not just on those made for the session: a screen or another session
+ * loading metadata in between means the next content load and play have to be sent again.
+ *
+ * <p>The state moves from {@link #IDLE} through {@link #LOADED}, {@link #PLAYING} and {@link
+ * #STOPPED} to {@link #ENDED}. Calls are rare next to playhead ticks and never contended for long,
+ * so the state is guarded by the object's lock.
+ */
+final class AppSdkState {
+  static final int IDLE = 0; // nothing sent yet
+  static final int LOADED = 1; // metadata loaded, not playing
+  static final int PLAYING = 2;
+  static final int STOPPED = 3;
+  static final int ENDED = 4;
+
+  /** State names, indexed by the constants above. */
+  static final String[] STATE_NAMES = {"idle", "loaded", "playing", "stopped", "ended"};
+
+  // NEXT[state][method] is the state after an SdkDispatcher method is called in that state. Any
+  // load leaves the AppSdk loaded, as load() records. A playhead position after a stop resumes
+  // measurement, so the AppSdk is no longer known to be stopped; it only counts as playing once
+  // play has been called.
+  private static final int[][] NEXT = {
+    // loadMetadata, play, stop, end, setPlayheadPosition
+    {LOADED, PLAYING, IDLE, ENDED, IDLE}, // idle
+    {LOADED, PLAYING, LOADED, ENDED, LOADED}, // loaded
+    {LOADED, PLAYING, STOPPED, ENDED, PLAYING}, // playing
+    {LOADED, PLAYING, STOPPED, ENDED, LOADED}, // stopped
+    {LOADED, PLAYING, ENDED, ENDED, ENDED}, // ended
+  };
+
+  private int state = IDLE;
+  // the metadata the AppSdk was last given, by identity
+  private JSONObject loaded;
+
+  /**
+   * Whether a call that found the AppSdk in state {@code previous} cannot change what it knows: a
+   * play while already playing, or a stop or end repeated. A stop in any other state is sent,
+   * since ticks may have resumed measurement without a play.
+   *
+   * @param method {@link SdkDispatcher#PLAY}, {@link SdkDispatcher#STOP} or {@link
+   *     SdkDispatcher#END}
+   */
+  static boolean isRedundant(int method, int previous) {
+    switch (method) {
+      case SdkDispatcher.PLAY:
+        return previous == PLAYING;
+      case SdkDispatcher.STOP:
+        return previous == STOPPED || previous == ENDED;
+      case SdkDispatcher.END:
+        return previous == ENDED;
+      default:
+        return false;
+    }
+  }
+
+  /** What the AppSdk has last been told, one of the state constants. */
+  synchronized int state() {
+    return state;
+  }
+
+  /**
+   * Moves the AppSdk on for a call other than loadMetadata.
+   *
+   * @param method one of the method constants in {@link SdkDispatcher}
+   * @return the state before the call
+   */
+  synchronized int advance(int method) {
+    int previous = state;
+    state = NEXT[previous][method];
+    return previous;
+  }
+
+  /**
+   * Records that {@code metadata} is about to be loaded, unless it can be skipped: content
+   * metadata that is the very object the AppSdk was last given, while it is measuring it. Any
+   * other load replaces what the AppSdk measures, so it is no longer known to be playing.
+   *
+   * @param content whether {@code metadata} is content metadata, the only kind ever skipped
+   * @return true if the load can be skipped
+   */
+  synchronized boolean load(JSONObject metadata, boolean content) {
+    if (content && metadata == loaded && state != IDLE && state != ENDED) {
+      return true;
+    }
+    loaded = metadata;
+    state = LOADED;
+    return false;
+  }
+}
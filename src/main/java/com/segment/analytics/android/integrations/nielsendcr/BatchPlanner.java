@@ -0,0 +1,162 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Works out which events of a queued batch can be skipped without changing the state the AppSdk
+ * is left in. Events that were queued arrive all at once, so pauses, seeks and rebuffers that were
+ * already over by the time the batch is handled only make the AppSdk stop and play again.
+ *
+ * <p>Each session's events are looked at on their own. A run of stop events (paused, interrupted,
+ * seek or buffer started) and play events (resumed, seek or buffer completed) is cut down to the
+ * last stop event that a play event follows, and what comes after it: that still leaves the
+ * session playing or stopped, with the playhead at the position it would have had. A run followed
+ * by a completion is dropped entirely, since the AppSdk is ended either way; an exit only stops
+ * it, so what the exit finds still matters. Every other event is kept, and ends the run before it.
+ *
+ * <p>Sessions and screens can share an AppSdk, and which calls are skipped as redundant depends
+ * on what the AppSdk was told last by any of them. So a screen, or an event of another session,
+ * also ends every run of the sessions it interleaves with.
+ *
+ * <p>When seeks and rebuffers hold their stop back (the `coalesceWindowMillis` setting), whether
+ * they reach the AppSdk depends on the playhead rather than on the events before them, so they
+ * are kept and end runs like any other event. The plays that open the run after them are kept
+ * too, since they are what cancels the held-back stop.
+ */
+class BatchPlanner {
+  private BatchPlanner() {}
+
+  /**
+   * @param codes the {@link EventTable} code of each event, or {@link Metrics#SCREEN} for screens
+   * @param sessionIds the session of each event, or null for events that are not part of one
+   * @param pinned events that must be kept, such as the one that creates a session
+   * @param deferredStops whether seeks and rebuffers hold their stop back
+   * @return whether each event is superseded by a later one
+   */
+  static boolean[] superseded(
+      int[] codes, String[] sessionIds, boolean[] pinned, boolean deferredStops) {
+    boolean[] superseded = new boolean[codes.length];
+    Map<String, Run> runs = new HashMap<>();
+    String previousSessionId = null;
+    for (int i = 0; i < codes.length; i++) {
+      String sessionId = sessionIds[i];
+      boolean screen = codes[i] == Metrics.SCREEN;
+      if (sessionId == null && !screen) {
+        continue;
+      }
+      if (screen || !sessionId.equals(previousSessionId)) {
+        for (Map.Entry<String, Run> entry : runs.entrySet()) {
+          if (!entry.getKey().equals(sessionId)) {
+            entry.getValue().settle(codes, superseded, false, deferredStops);
+          }
+        }
+      }
+      previousSessionId = sessionId;
+      if (screen) {
+        continue;
+      }
+      Run run = runs.get(sessionId);
+      if (!pinned[i] && isToggle(codes[i], deferredStops)) {
+        if (run == null) {
+          run = new Run();
+          runs.put(sessionId, run);
+        }
+        run.add(i);
+        continue;
+      }
+      if (run != null) {
+        boolean ends = !pinned[i] && codes[i] == EventTable.PLAYBACK_COMPLETED;
+        run.settle(codes, superseded, ends, deferredStops);
+      }
+    }
+    for (Run run : runs.values()) {
+      run.settle(codes, superseded, false, deferredStops);
+    }
+    return superseded;
+  }
+
+  private static boolean isToggle(int code, boolean deferredStops) {
+    switch (code) {
+      case EventTable.PLAYBACK_SEEK_STARTED:
+      case EventTable.PLAYBACK_SEEK_COMPLETED:
+      case EventTable.PLAYBACK_BUFFER_STARTED:
+      case EventTable.PLAYBACK_BUFFER_COMPLETED:
+        return !deferredStops;
+      default:
+        return isStop(code) || isPlay(code);
+    }
+  }
+
+  private static boolean isStop(int code) {
+    switch (code) {
+      case EventTable.PLAYBACK_PAUSED:
+      case EventTable.PLAYBACK_INTERRUPTED:
+      case EventTable.PLAYBACK_SEEK_STARTED:
+      case EventTable.PLAYBACK_BUFFER_STARTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isPlay(int code) {
+    switch (code) {
+      case EventTable.PLAYBACK_RESUMED:
+      case EventTable.PLAYBACK_SEEK_COMPLETED:
+      case EventTable.PLAYBACK_BUFFER_COMPLETED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Indices of a session's consecutive stop and play events. */
+  private static class Run {
+    private int[] events = new int[4];
+    private int size;
+
+    void add(int index) {
+      if (size == events.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(events, 0, grown, 0, size);
+        events = grown;
+      }
+      events[size++] = index;
+    }
+
+    /**
+     * Marks the events of the run that are superseded, and empties it.
+     *
+     * @param keepLeadingPlays whether the plays before the run's first stop are kept, because they
+     *     may cancel a stop held back by the seek or rebuffer before the run
+     */
+    void settle(int[] codes, boolean[] superseded, boolean ends, boolean keepLeadingPlays) {
+      int first = 0;
+      while (keepLeadingPlays && first < size && isPlay(codes[events[first]])) {
+        first++;
+      }
+      int lastPlay = -1;
+      for (int i = size - 1; i >= 0; i--) {
+        if (isPlay(codes[events[i]])) {
+          lastPlay = i;
+          break;
+        }
+      }
+      // the last stop that a play follows; the play leaves the playhead where it says
+      int lastStop = -1;
+      for (int i = lastPlay - 1; i >= 0; i--) {
+        if (isStop(codes[events[i]])) {
+          lastStop = i;
+          break;
+        }
+      }
+      for (int i = first; i < size; i++) {
+        if (ends || i < lastStop) {
+          superseded[events[i]] = true;
+        }
+      }
+      size = 0;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of event properties with the snake_case keys of a formatter renamed to camelCase,
+ * as {@link MappingPlan#CONTENT_FORMATTER} and {@link MappingPlan#AD_FORMATTER} describe. Nothing
+ * is copied: a lookup of a camelCase name reads its snake_case source, falling back to the
+ * camelCase key itself when the source is absent or null, so only the keys the mappers read cost
+ * anything however many custom properties the event carries.
+ *
+ * <p>Lookups see the same values as a copy with the renames applied: a snake_case key that was
+ * renamed reads as absent. Iterating the view builds such a copy, which is only meant for logging
+ * and tests. Changes to the underlying properties show through.
+ */
+final class CamelCaseView extends AbstractMap<String, Object> {
+  static final Renames CONTENT = new Renames(MappingPlan.CONTENT_FORMATTER);
+  static final Renames AD = new Renames(MappingPlan.AD_FORMATTER);
+
+  private final Map<String, Object> properties;
+  private final Renames renames;
+
+  CamelCaseView(Map<String, Object> properties, Renames renames) {
+    this.properties = properties;
+    this.renames = renames;
+  }
+
+  @Override
+  public Object get(Object key) {
+    String source = renames.sources.get(key);
+    if (source != null) {
+      Object value = properties.get(source);
+      return value != null ? value : properties.get(key);
+    }
+    if (renames.targets.containsKey(key)) {
+      // renamed away when set, and null when not
+      return null;
+    }
+    return properties.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    String source = renames.sources.get(key);
+    if (source != null) {
+      return properties.get(source) != null || properties.containsKey(key);
+    }
+    if (renames.targets.containsKey(key)) {
+      return properties.containsKey(key) && properties.get(key) == null;
+    }
+    return properties.containsKey(key);
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    Map<String, Object> copy = new LinkedHashMap<>(properties);
+    String[] formatter = renames.formatter;
+    for (int i = 0; i < formatter.length; i += 2) {
+      Object value = copy.get(formatter[i]);
+      if (value != null) {
+        copy.put(formatter[i + 1], value);
+        copy.remove(formatter[i]);
+      }
+    }
+    return Collections.unmodifiableMap(copy).entrySet();
+  }
+
+  /** A formatter's (source, target) pairs, indexed both ways for lookups. */
+  static final class Renames {
+    final String[] formatter;
+    final Map<String, String> sources = new HashMap<>(); // camelCase -> snake_case
+    final Map<String, String> targets = new HashMap<>(); // snake_case -> camelCase
+
+    Renames(String[] formatter) {
+      this.formatter = formatter;
+      for (int i = 0; i < formatter.length; i += 2) {
+        sources.put(formatter[i + 1], formatter[i]);
+        targets.put(formatter[i], formatter[i + 1]);
+      }
+    }
+
+    /** Returns the shared instance for the formatters in {@link MappingPlan}. */
+    static Renames of(String[] formatter) {
+      if (formatter == MappingPlan.CONTENT_FORMATTER) {
+        return CONTENT;
+      } else if (formatter == MappingPlan.AD_FORMATTER) {
+        return AD;
+      }
+      return new Renames(formatter);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.Integration;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Stands in for the integration while it is created on a background thread. Track and screen calls
+ * that arrive in the meantime are held in a bounded buffer and replayed, in order, once the real
+ * integration exists; after that every call is passed straight through.
+ */
+class DeferredIntegration extends Integration<AppSdk> {
+  private static final String THREAD_NAME = "Segment-NielsenDCR-Startup";
+
+  private final int capacity;
+  private final long startNanos;
+  private final Metrics metrics;
+  private final Logger logger;
+  private final Object lock = new Object();
+  private final ArrayDeque<BasePayload> buffer = new ArrayDeque<>();
+  // set once every buffered call has been replayed; read without the lock on the fast path
+  private volatile Integration<AppSdk> delegate;
+  private boolean failed; // guarded by lock
+
+  /**
+   * @param capacity calls buffered at most; later calls are dropped until the integration is ready
+   * @param startNanos when the integration was requested, to measure time to ready
+   */
+  DeferredIntegration(int capacity, long startNanos, Metrics metrics, Logger logger) {
+    this.capacity = capacity;
+    this.startNanos = startNanos;
+    this.metrics = metrics;
+    this.logger = logger;
+  }
+
+  /** Creates the real integration on a new daemon thread. */
+  void start(final Callable<Integration<AppSdk>> factory) {
+    Thread thread =
+        new Thread(THREAD_NAME) {
+          @Override
+          public void run() {
+            Integration<AppSdk> integration = null;
+            try {
+              integration = factory.call();
+            } catch (Exception e) {
+              logger.error(e, "Could not create integration.");
+            }
+            ready(integration);
+          }
+        };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Replays the buffered calls into {@code integration}, or discards them if it is null, and then
+   * lets calls through. Calls that arrive during the replay are buffered and replayed after it.
+   */
+  void ready(Integration<AppSdk> integration) {
+    while (true) {
+      List<BasePayload> pending;
+      synchronized (lock) {
+        if (buffer.isEmpty()) {
+          if (integration == null) {
+            failed = true;
+          } else {
+            delegate = integration;
+            metrics.timeToReadyNanos.set(System.nanoTime() - startNanos);
+          }
+          return;
+        }
+        pending = new ArrayList<>(buffer);
+        buffer.clear();
+      }
+      if (integration == null) {
+        continue;
+      }
+      for (BasePayload payload : pending) {
+        if (payload instanceof TrackPayload) {
+          integration.track((TrackPayload) payload);
+        } else {
+          integration.screen((ScreenPayload) payload);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void track(TrackPayload track) {
+    Integration<AppSdk> integration = delegateOrBuffer(track);
+    if (integration != null) {
+      integration.track(track);
+    }
+  }
+
+  @Override
+  public void screen(ScreenPayload screen) {
+    Integration<AppSdk> integration = delegateOrBuffer(screen);
+    if (integration != null) {
+      integration.screen(screen);
+    }
+  }
+
+  /** Null until the AppSdk has been built. */
+  @Override
+  public AppSdk getUnderlyingInstance() {
+    Integration<AppSdk> integration = delegate;
+    return integration == null ? null : integration.getUnderlyingInstance();
+  }
+
+  /**
+   * Returns the metrics of the real integration once it is ready. Until then these are the
+   * startup counters, which the real integration goes on recording into.
+   */
+  MetricsSnapshot metrics() {
+    Integration<AppSdk> integration = delegate;
+    if (integration instanceof NielsenDCRIntegration) {
+      return ((NielsenDCRIntegration) integration).metrics();
+    }
+    return metrics.snapshot();
+  }
+
+  /** Returns the calls traced by the real integration, or an empty string until it is ready. */
+  String dumpTrace() {
+    Integration<AppSdk> integration = delegate;
+    if (integration instanceof NielsenDCRIntegration) {
+      return ((NielsenDCRIntegration) integration).dumpTrace();
+    }
+    return "";
+  }
+
+  /** Returns the integration to pass {@code payload} to, or null if it was buffered or dropped. */
+  private Integration<AppSdk> delegateOrBuffer(BasePayload payload) {
+    Integration<AppSdk> integration = delegate;
+    if (integration != null) {
+      return integration;
+    }
+    synchronized (lock) {
+      if (delegate != null) {
+        return delegate;
+      }
+      if (failed) {
+        return null;
+      }
+      if (buffer.size() >= capacity) {
+        metrics.startupDropped.incrementAndGet();
+        return null;
+      }
+      buffer.add(payload);
+      metrics.startupBuffered.incrementAndGet();
+      return null;
+    }
+  }
+}
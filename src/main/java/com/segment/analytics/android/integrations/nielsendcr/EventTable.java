@@ -0,0 +1,146 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.Map;
+
+/**
+ * Resolves Segment event names to compact video event codes. Names are resolved once per event
+ * through a small open-addressing table; names that cannot match (the common case for non-video
+ * events) are usually rejected by a length check before the name is hashed.
+ */
+final class EventTable {
+  static final int UNKNOWN = 0;
+
+  static final int PLAYBACK_STARTED = 1;
+  static final int PLAYBACK_PAUSED = 2;
+  static final int PLAYBACK_INTERRUPTED = 3;
+  static final int PLAYBACK_SEEK_STARTED = 4;
+  static final int PLAYBACK_SEEK_COMPLETED = 5;
+  static final int PLAYBACK_BUFFER_STARTED = 6;
+  static final int PLAYBACK_BUFFER_COMPLETED = 7;
+  static final int PLAYBACK_RESUMED = 8;
+  static final int PLAYBACK_EXITED = 9;
+  static final int PLAYBACK_COMPLETED = 10;
+
+  static final int CONTENT_STARTED = 11;
+  static final int CONTENT_PLAYING = 12;
+  static final int CONTENT_COMPLETED = 13;
+
+  static final int AD_STARTED = 14;
+  static final int AD_PLAYING = 15;
+  static final int AD_COMPLETED = 16;
+
+  static final int FAMILY_NONE = 0;
+  static final int FAMILY_PLAYBACK = 1;
+  static final int FAMILY_CONTENT = 2;
+  static final int FAMILY_AD = 3;
+
+  /** Segment video spec event names, indexed by event code. */
+  static final String[] SPEC_NAMES = {
+    null,
+    "Video Playback Started",
+    "Video Playback Paused",
+    "Video Playback Interrupted",
+    "Video Playback Seek Started",
+    "Video Playback Seek Completed",
+    "Video Playback Buffer Started",
+    "Video Playback Buffer Completed",
+    "Video Playback Resumed",
+    "Video Playback Exited",
+    "Video Playback Completed",
+    "Video Content Started",
+    "Video Content Playing",
+    "Video Content Completed",
+    "Video Ad Started",
+    "Video Ad Playing",
+    "Video Ad Completed",
+  };
+
+  static final EventTable SPEC = new EventTable(null);
+
+  private final String[] names;
+  private final int[] codes;
+  private final int mask;
+  // bit n is set when some name has length n; bit 63 stands for every length >= 63
+  private final long lengths;
+
+  /**
+   * @param aliases extra event names mapped to the spec event name they stand for, or null. Aliases
+   *     of unknown spec events are ignored.
+   */
+  EventTable(Map<String, String> aliases) {
+    int count = SPEC_NAMES.length - 1 + (aliases == null ? 0 : aliases.size());
+    int capacity = Integer.highestOneBit(count * 2 - 1) << 1;
+    names = new String[capacity];
+    codes = new int[capacity];
+    mask = capacity - 1;
+
+    long lengths = 0;
+    for (int code = 1; code < SPEC_NAMES.length; code++) {
+      lengths |= put(SPEC_NAMES[code], code);
+    }
+    if (aliases != null) {
+      for (Map.Entry<String, String> alias : aliases.entrySet()) {
+        int code = specCode(alias.getValue());
+        if (alias.getKey() != null && code != UNKNOWN) {
+          lengths |= put(alias.getKey(), code);
+        }
+      }
+    }
+    this.lengths = lengths;
+  }
+
+  /** Returns the event code for {@code event}, or {@link #UNKNOWN}. */
+  int lookup(String event) {
+    if (event == null || (lengths & lengthBit(event.length())) == 0) {
+      return UNKNOWN;
+    }
+    for (int i = slot(event); ; i = (i + 1) & mask) {
+      String name = names[i];
+      if (name == null) {
+        return UNKNOWN;
+      }
+      if (name.equals(event)) {
+        return codes[i];
+      }
+    }
+  }
+
+  static int family(int code) {
+    if (code >= AD_STARTED) {
+      return FAMILY_AD;
+    } else if (code >= CONTENT_STARTED) {
+      return FAMILY_CONTENT;
+    } else if (code >= PLAYBACK_STARTED) {
+      return FAMILY_PLAYBACK;
+    }
+    return FAMILY_NONE;
+  }
+
+  private long put(String name, int code) {
+    int i = slot(name);
+    while (names[i] != null && !names[i].equals(name)) {
+      i = (i + 1) & mask;
+    }
+    names[i] = name;
+    codes[i] = code;
+    return lengthBit(name.length());
+  }
+
+  private int slot(String name) {
+    int h = name.hashCode();
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  private static long lengthBit(int length) {
+    return 1L << Math.min(length, 63);
+  }
+
+  private static int specCode(String name) {
+    for (int code = 1; code < SPEC_NAMES.length; code++) {
+      if (SPEC_NAMES[code].equals(name)) {
+        return code;
+      }
+    }
+    return UNKNOWN;
+  }
+}
@@ -0,0 +1,59 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Bucket {@code i} counts durations in {@code
+ * [2^(i-1), 2^i)}, so recording is a leading-zero count and a few atomic adds, and percentiles are
+ * accurate to within a factor of two.
+ */
+class LatencyHistogram {
+  // the last bucket also takes everything above 2^39ns (about nine minutes)
+  static final int BUCKETS = 41;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  static int bucket(long nanos) {
+    if (nanos <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  /** Largest duration that falls in {@code bucket}. */
+  static long upperBound(int bucket) {
+    return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      // System.nanoTime() is monotonic, but guard against a misbehaving clock
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucket(nanos));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long current;
+    while (nanos > (current = max.get())) {
+      if (max.compareAndSet(current, nanos)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Copies the histogram. Concurrent recordings may be split across the copy, so the bucket counts
+   * can differ slightly from {@link MetricsSnapshot.Histogram#count()}.
+   */
+  MetricsSnapshot.Histogram snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return new MetricsSnapshot.Histogram(counts, count.get(), total.get(), max.get());
+  }
+}
@@ -0,0 +1,159 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import static com.segment.analytics.internal.Utils.isNullOrEmpty;
+
+import java.util.Map;
+
+/**
+ * Immutable, pre-resolved form of {@link NielsenDCRIntegration.Settings}. Compiled once when the
+ * integration is created so that event handling reads property names straight from fields and flat
+ * arrays instead of re-resolving defaults and walking lookup maps on every event.
+ */
+final class MappingPlan {
+  /** snake_case to camelCase renames for content properties, as (source, target) pairs. */
+  static final String[] CONTENT_FORMATTER = {
+    "session_id", "sessionId",
+    "asset_id", "assetId",
+    "pod_id", "podId",
+    "total_length", "totalLength",
+    "full_episode", "fullEpisode",
+    "content_asset_id", "contentAssetId",
+    "ad_asset_id", "adAssetId",
+    "load_type", "loadType",
+  };
+
+  /** snake_case to camelCase renames for ad properties, as (source, target) pairs. */
+  static final String[] AD_FORMATTER = {
+    "session_id", "sessionId",
+    "asset_id", "assetId",
+    "pod_id", "podId",
+    "pod_position", "podPosition",
+    "pod_length", "podLength",
+    "total_length", "totalLength",
+    "load_type", "loadType",
+  };
+
+  /** Properties copied verbatim into content metadata, as (property, Nielsen key) pairs. */
+  static final String[] CONTENT_COPIES = {
+    "title", "title",
+    "program", "program",
+  };
+
+  /** Integration options read when building content metadata. */
+  static final String[] CONTENT_OPTION_KEYS = {
+    "pipmode", "crossId1", "crossId2", "segB", "segC", "hasAds", "adLoadType",
+  };
+
+  // Stands in for keys that are absent, which metadata building treats differently from null.
+  private static final Object ABSENT = new Object();
+
+  /** Property names tried in order for the content asset id; the first non-null value wins. */
+  final String[] contentAssetIdKeys;
+
+  final String adAssetIdKey;
+  final String clientIdKey;
+  final String subbrandKey;
+  final String contentLengthKey;
+  final String customSectionKey; // null when not configured
+  final String appIdKey; // null when not configured
+  final boolean sendCurrentTimeLivestream;
+  final long coalesceWindowMillis; // 0 when stop/play flaps are not coalesced
+  final long screenDebounceMillis; // 0 when every screen is loaded right away
+  // skip AppSdk calls that cannot change what Nielsen knows about a session
+  final boolean suppressRedundantCalls;
+  final int traceBufferSize; // 0 when AppSdk calls are not traced
+  final EventTable events;
+  /** Every (camelCased) property read when building content metadata. */
+  final String[] contentPropertyKeys;
+
+  private MappingPlan(
+      String[] contentAssetIdKeys,
+      String adAssetIdKey,
+      String clientIdKey,
+      String subbrandKey,
+      String contentLengthKey,
+      String customSectionKey,
+      String appIdKey,
+      boolean sendCurrentTimeLivestream,
+      long coalesceWindowMillis,
+      long screenDebounceMillis,
+      boolean suppressRedundantCalls,
+      int traceBufferSize,
+      EventTable events) {
+    this.contentAssetIdKeys = contentAssetIdKeys;
+    this.adAssetIdKey = adAssetIdKey;
+    this.clientIdKey = clientIdKey;
+    this.subbrandKey = subbrandKey;
+    this.contentLengthKey = contentLengthKey;
+    this.customSectionKey = customSectionKey;
+    this.appIdKey = appIdKey;
+    this.sendCurrentTimeLivestream = sendCurrentTimeLivestream;
+    this.coalesceWindowMillis = coalesceWindowMillis;
+    this.screenDebounceMillis = screenDebounceMillis;
+    this.suppressRedundantCalls = suppressRedundantCalls;
+    this.traceBufferSize = traceBufferSize;
+    this.events = events;
+
+    String[] fixed = {
+      clientIdKey, subbrandKey, contentLengthKey, "airdate", "loadType", "fullEpisode",
+    };
+    int copies = CONTENT_COPIES.length / 2;
+    contentPropertyKeys = new String[copies + contentAssetIdKeys.length + fixed.length];
+    for (int i = 0; i < copies; i++) {
+      contentPropertyKeys[i] = CONTENT_COPIES[i * 2];
+    }
+    System.arraycopy(contentAssetIdKeys, 0, contentPropertyKeys, copies, contentAssetIdKeys.length);
+    System.arraycopy(
+        fixed, 0, contentPropertyKeys, copies + contentAssetIdKeys.length, fixed.length);
+  }
+
+  /**
+   * Collects every value that content metadata is built from, so two events with equal inputs are
+   * known to produce equal metadata.
+   */
+  Object[] contentInputs(Map<String, ?> properties, Map<String, ?> options) {
+    Object[] inputs = new Object[contentPropertyKeys.length + CONTENT_OPTION_KEYS.length];
+    for (int i = 0; i < contentPropertyKeys.length; i++) {
+      inputs[i] = valueOrAbsent(properties, contentPropertyKeys[i]);
+    }
+    for (int i = 0; i < CONTENT_OPTION_KEYS.length; i++) {
+      inputs[contentPropertyKeys.length + i] = valueOrAbsent(options, CONTENT_OPTION_KEYS[i]);
+    }
+    return inputs;
+  }
+
+  private static Object valueOrAbsent(Map<String, ?> map, String key) {
+    Object value = map.get(key);
+    if (value == null && !map.containsKey(key)) {
+      return ABSENT;
+    }
+    return value;
+  }
+
+  static MappingPlan compile(NielsenDCRIntegration.Settings settings) {
+    String[] contentAssetIdKeys =
+        settings.contentAssetIdPropertyName != null
+            ? new String[] {settings.contentAssetIdPropertyName}
+            : new String[] {"assetId", "contentAssetId"};
+    return new MappingPlan(
+        contentAssetIdKeys,
+        orDefault(settings.adAssetIdPropertyName, "assetId"),
+        orDefault(settings.clientIdPropertyName, "clientId"),
+        orDefault(settings.subbrandPropertyName, "subbrand"),
+        orDefault(settings.contentLengthPropertyName, "totalLength"),
+        isNullOrEmpty(settings.customSectionProperty) ? null : settings.customSectionProperty,
+        isNullOrEmpty(settings.appIdPropertyName) ? null : settings.appIdPropertyName,
+        settings.sendCurrentTimeLivestream != null && settings.sendCurrentTimeLivestream,
+        Math.max(0, settings.coalesceWindowMillis),
+        Math.max(0, settings.screenDebounceMillis),
+        settings.suppressRedundantCalls,
+        Math.max(0, settings.traceBufferSize),
+        isNullOrEmpty(settings.eventAliases)
+            ? EventTable.SPEC
+            : new EventTable(settings.eventAliases));
+  }
+
+  private static String orDefault(String value, String defaultValue) {
+    return value != null ? value : defaultValue;
+  }
+}
@@ -0,0 +1,64 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.json.JSONObject;
+
+/** Calls the AppSdk on the calling thread and records how long each call blocked. */
+class MeasuredSdkDispatcher implements SdkDispatcher {
+  private final Metrics metrics;
+
+  MeasuredSdkDispatcher(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void loadMetadata(AppSdk appSdk, JSONObject metadata) {
+    long start = System.nanoTime();
+    try {
+      appSdk.loadMetadata(metadata);
+    } finally {
+      metrics.recordSdkCall(LOAD_METADATA, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void play(AppSdk appSdk, JSONObject channelInfo) {
+    long start = System.nanoTime();
+    try {
+      appSdk.play(channelInfo);
+    } finally {
+      metrics.recordSdkCall(PLAY, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void stop(AppSdk appSdk) {
+    long start = System.nanoTime();
+    try {
+      appSdk.stop();
+    } finally {
+      metrics.recordSdkCall(STOP, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void end(AppSdk appSdk) {
+    long start = System.nanoTime();
+    try {
+      appSdk.end();
+    } finally {
+      metrics.recordSdkCall(END, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void setPlayheadPosition(AppSdk appSdk, long position) {
+    long start = System.nanoTime();
+    try {
+      appSdk.setPlayheadPosition(position);
+    } finally {
+      metrics.recordSdkCall(SET_PLAYHEAD_POSITION, System.nanoTime() - start);
+    }
+  }
+}
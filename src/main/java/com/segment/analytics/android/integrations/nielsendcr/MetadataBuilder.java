@@ -0,0 +1,132 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Metadata for one kind of AppSdk call, held as strings in fixed slots for the keys Nielsen knows
+ * and only turned into a {@link JSONObject} when it is handed to the AppSdk. A builder is filled
+ * again for every event; when the values come out the same as last time, {@link #build()} returns
+ * the object it built then instead of a new one, so an unchanged ad, screen or channel costs no
+ * JSON at all.
+ *
+ * <p>Builders are not thread-safe: callers hold the builder's lock from {@link #clear()} to
+ * {@link #build()}. Returned objects are never changed afterwards, so they can be shared.
+ */
+final class MetadataBuilder {
+  static final int ASSETID = 0;
+  static final int TITLE = 1;
+  static final int PROGRAM = 2;
+  static final int TYPE = 3;
+  static final int LENGTH = 4;
+  static final int AIRDATE = 5;
+  static final int ADLOADTYPE = 6;
+  static final int ISFULLEPISODE = 7;
+  static final int HASADS = 8;
+  static final int PIPMODE = 9;
+  static final int SEGB = 10;
+  static final int SEGC = 11;
+  static final int CROSSID1 = 12;
+  static final int CROSSID2 = 13;
+  static final int CLIENTID = 14;
+  static final int SUBBRAND = 15;
+  static final int SECTION = 16;
+  static final int CHANNEL_NAME = 17;
+  static final int MEDIA_URL = 18;
+
+  /** Nielsen key of each slot. */
+  static final String[] KEYS = {
+    "assetid",
+    "title",
+    "program",
+    "type",
+    "length",
+    "airdate",
+    "adloadtype",
+    "isfullepisode",
+    "hasAds",
+    "pipmode",
+    "segB",
+    "segC",
+    "crossId1",
+    "crossId2",
+    "clientid",
+    "subbrand",
+    "section",
+    "channelName",
+    "mediaURL",
+  };
+
+  // The slots each kind of call uses, in the order their keys have always been written.
+  static final int[] CONTENT = {
+    TITLE, PROGRAM, PIPMODE, CROSSID1, CROSSID2, SEGB, SEGC, HASADS, ASSETID, CLIENTID, SUBBRAND,
+    LENGTH, AIRDATE, ADLOADTYPE, ISFULLEPISODE, TYPE,
+  };
+  static final int[] AD = {ASSETID, TYPE, TITLE};
+  static final int[] SCREEN = {SECTION, TYPE, ASSETID, SEGB, SEGC, CROSSID1};
+  static final int[] CHANNEL = {CHANNEL_NAME, MEDIA_URL};
+
+  /** Returns the slot for a Nielsen key, or -1. */
+  static int slot(String key) {
+    for (int slot = 0; slot < KEYS.length; slot++) {
+      if (KEYS[slot].equals(key)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private final int[] layout;
+  private final String[] values = new String[KEYS.length];
+  private final String[] built = new String[KEYS.length];
+  private JSONObject json;
+
+  /** @param layout one of {@link #CONTENT}, {@link #AD}, {@link #SCREEN} or {@link #CHANNEL} */
+  MetadataBuilder(int[] layout) {
+    this.layout = layout;
+  }
+
+  /** Empties every slot; slots left empty are not written. */
+  MetadataBuilder clear() {
+    for (int i = 0; i < layout.length; i++) {
+      values[layout[i]] = null;
+    }
+    return this;
+  }
+
+  MetadataBuilder set(int slot, String value) {
+    values[slot] = value;
+    return this;
+  }
+
+  /** Returns the metadata, which is the object returned last time if no slot has changed. */
+  JSONObject build() throws JSONException {
+    if (json != null && unchanged()) {
+      return json;
+    }
+    json = null;
+    JSONObject metadata = new JSONObject();
+    for (int i = 0; i < layout.length; i++) {
+      int slot = layout[i];
+      String value = values[slot];
+      if (value != null) {
+        metadata.put(KEYS[slot], value);
+      }
+      built[slot] = value;
+    }
+    json = metadata;
+    return metadata;
+  }
+
+  private boolean unchanged() {
+    for (int i = 0; i < layout.length; i++) {
+      int slot = layout[i];
+      String value = values[slot];
+      String previous = built[slot];
+      if (value == null ? previous != null : !value.equals(previous)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
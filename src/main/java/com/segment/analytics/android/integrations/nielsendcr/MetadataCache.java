@@ -0,0 +1,95 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of built content metadata, keyed by session and content asset id. An entry is
+ * only reused when every input that went into building it is unchanged; inputs are compared by a
+ * precomputed hash first and then element by element, so a collision can never return stale
+ * metadata.
+ *
+ * <p>Cached objects are handed to the AppSdk as-is and must not be modified after they are stored.
+ */
+class MetadataCache {
+  private static final char KEY_SEPARATOR = '\u0000';
+
+  private final LinkedHashMap<String, Entry> entries;
+  private long hits;
+  private long misses;
+
+  MetadataCache(final int maxSize) {
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  static String key(String sessionId, String assetId) {
+    return sessionId + KEY_SEPARATOR + assetId;
+  }
+
+  /** Returns the metadata stored for {@code key} if it was built from the same inputs, or null. */
+  synchronized JSONObject get(String key, Object[] inputs) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.matches(inputs)) {
+      hits++;
+      return entry.metadata;
+    }
+    misses++;
+    return null;
+  }
+
+  synchronized void put(String key, Object[] inputs, JSONObject metadata) {
+    entries.put(key, new Entry(inputs, metadata));
+  }
+
+  /** Drops every entry that belongs to {@code sessionId}. */
+  synchronized void evictSession(String sessionId) {
+    String prefix = sessionId + KEY_SEPARATOR;
+    for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+      if (keys.next().startsWith(prefix)) {
+        keys.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized long hits() {
+    return hits;
+  }
+
+  synchronized long misses() {
+    return misses;
+  }
+
+  private static class Entry {
+    final Object[] inputs;
+    final int fingerprint;
+    final JSONObject metadata;
+
+    Entry(Object[] inputs, JSONObject metadata) {
+      this.inputs = inputs;
+      this.fingerprint = Arrays.hashCode(inputs);
+      this.metadata = metadata;
+    }
+
+    boolean matches(Object[] other) {
+      return fingerprint == Arrays.hashCode(other) && Arrays.equals(inputs, other);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for one integration instance. Everything is recorded with atomic
+ * operations on preallocated slots, indexed by event code and AppSdk method, so recording never
+ * locks or allocates and is cheap enough to leave on in release builds.
+ */
+class Metrics {
+  /** Slot for screen calls, after the video event codes. */
+  static final int SCREEN = EventTable.SPEC_NAMES.length;
+
+  private final LatencyHistogram[] events = newHistograms(SCREEN + 1);
+  private final LatencyHistogram[] sdkCalls = newHistograms(SdkDispatcher.METHOD_NAMES.length);
+  final LatencyHistogram tickJitter = new LatencyHistogram();
+  final AtomicInteger activeTimers = new AtomicInteger();
+  // AppSdk calls saved by dropping a deferred stop and the play after it, only those that would
+  // have been sent
+  final AtomicLong coalescedSdkCalls = new AtomicLong();
+  // screens replaced or repeated within the debounce window, so never loaded
+  final AtomicLong suppressedScreenLoads = new AtomicLong();
+  // session calls skipped because they would not change what the AppSdk knows
+  final AtomicLong suppressedSdkCalls = new AtomicLong();
+  // queued events skipped by trackBatch() because a later event undid them
+  final AtomicLong supersededEvents = new AtomicLong();
+  // from the factory being asked for the integration to the integration handling events
+  final AtomicLong timeToReadyNanos = new AtomicLong();
+  // calls held back, and dropped for lack of room, while the AppSdk was built in the background
+  final AtomicLong startupBuffered = new AtomicLong();
+  final AtomicLong startupDropped = new AtomicLong();
+  // set when AppSdk calls go through a queue, whose counters are read at snapshot time
+  volatile QueuedSdkDispatcher sdkQueue;
+  // set by the integration the metrics belong to, whose cache counters are read at snapshot time
+  volatile MetadataCache contentMetadataCache;
+
+  private static LatencyHistogram[] newHistograms(int size) {
+    LatencyHistogram[] histograms = new LatencyHistogram[size];
+    for (int i = 0; i < size; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+    return histograms;
+  }
+
+  /**
+   * @param event an {@link EventTable} code, {@link EventTable#UNKNOWN} for tracks that are not
+   *     video events, or {@link #SCREEN}
+   */
+  void recordEvent(int event, long nanos) {
+    events[event].record(nanos);
+  }
+
+  /** @param method one of the method constants in {@link SdkDispatcher} */
+  void recordSdkCall(int method, long nanos) {
+    sdkCalls[method].record(nanos);
+  }
+
+  MetricsSnapshot snapshot() {
+    Map<String, MetricsSnapshot.Histogram> eventLatency = new LinkedHashMap<>();
+    for (int event = 0; event < events.length; event++) {
+      MetricsSnapshot.Histogram histogram = events[event].snapshot();
+      if (histogram.count() > 0) {
+        eventLatency.put(eventName(event), histogram);
+      }
+    }
+    Map<String, MetricsSnapshot.Histogram> sdkCallLatency = new LinkedHashMap<>();
+    for (int method = 0; method < sdkCalls.length; method++) {
+      MetricsSnapshot.Histogram histogram = sdkCalls[method].snapshot();
+      if (histogram.count() > 0) {
+        sdkCallLatency.put(SdkDispatcher.METHOD_NAMES[method], histogram);
+      }
+    }
+    QueuedSdkDispatcher queue = sdkQueue;
+    MetadataCache cache = contentMetadataCache;
+    return new MetricsSnapshot(
+        eventLatency,
+        sdkCallLatency,
+        tickJitter.snapshot(),
+        activeTimers.get(),
+        coalescedSdkCalls.get(),
+        suppressedScreenLoads.get(),
+        suppressedSdkCalls.get(),
+        supersededEvents.get(),
+        timeToReadyNanos.get(),
+        startupBuffered.get(),
+        startupDropped.get(),
+        cache != null ? cache.hits() : 0,
+        cache != null ? cache.misses() : 0,
+        queue != null ? queue.depth() : 0,
+        queue != null ? queue.maxDepth() : 0,
+        queue != null ? queue.submitted() : 0,
+        queue != null ? queue.dropped() : 0);
+  }
+
+  static String eventName(int event) {
+    if (event == SCREEN) {
+      return MetricsSnapshot.SCREEN;
+    } else if (event == EventTable.UNKNOWN) {
+      return MetricsSnapshot.OTHER_TRACK;
+    }
+    return EventTable.SPEC_NAMES[event];
+  }
+}
@@ -0,0 +1,284 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of the integration's metrics, returned by {@link
+ * NielsenDCRIntegration#currentMetrics()}. All durations are in nanoseconds.
+ */
+public final class MetricsSnapshot {
+  /** Key under which screen calls are reported in {@link #eventLatency()}. */
+  public static final String SCREEN = "screen";
+  /** Key under which tracks that are not video events are reported in {@link #eventLatency()}. */
+  public static final String OTHER_TRACK = "other";
+
+  private final Map<String, Histogram> eventLatency;
+  private final Map<String, Histogram> sdkCallLatency;
+  private final Histogram tickJitter;
+  private final int activeTimers;
+  private final long coalescedSdkCalls;
+  private final long suppressedScreenLoads;
+  private final long suppressedSdkCalls;
+  private final long supersededEvents;
+  private final long timeToReadyNanos;
+  private final long startupBufferedEvents;
+  private final long startupDroppedEvents;
+  private final long metadataCacheHits;
+  private final long metadataCacheMisses;
+  private final int sdkQueueDepth;
+  private final int sdkQueueMaxDepth;
+  private final long queuedSdkCalls;
+  private final long droppedSdkCalls;
+
+  MetricsSnapshot(
+      Map<String, Histogram> eventLatency,
+      Map<String, Histogram> sdkCallLatency,
+      Histogram tickJitter,
+      int activeTimers,
+      long coalescedSdkCalls,
+      long suppressedScreenLoads,
+      long suppressedSdkCalls,
+      long supersededEvents,
+      long timeToReadyNanos,
+      long startupBufferedEvents,
+      long startupDroppedEvents,
+      long metadataCacheHits,
+      long metadataCacheMisses,
+      int sdkQueueDepth,
+      int sdkQueueMaxDepth,
+      long queuedSdkCalls,
+      long droppedSdkCalls) {
+    this.eventLatency = Collections.unmodifiableMap(eventLatency);
+    this.sdkCallLatency = Collections.unmodifiableMap(sdkCallLatency);
+    this.tickJitter = tickJitter;
+    this.activeTimers = activeTimers;
+    this.coalescedSdkCalls = coalescedSdkCalls;
+    this.suppressedScreenLoads = suppressedScreenLoads;
+    this.suppressedSdkCalls = suppressedSdkCalls;
+    this.supersededEvents = supersededEvents;
+    this.timeToReadyNanos = timeToReadyNanos;
+    this.startupBufferedEvents = startupBufferedEvents;
+    this.startupDroppedEvents = startupDroppedEvents;
+    this.metadataCacheHits = metadataCacheHits;
+    this.metadataCacheMisses = metadataCacheMisses;
+    this.sdkQueueDepth = sdkQueueDepth;
+    this.sdkQueueMaxDepth = sdkQueueMaxDepth;
+    this.queuedSdkCalls = queuedSdkCalls;
+    this.droppedSdkCalls = droppedSdkCalls;
+  }
+
+  /**
+   * Time spent in {@code track()} and {@code screen()}, keyed by video spec event name (aliases are
+   * reported under the event they stand for), {@link #SCREEN} or {@link #OTHER_TRACK}. Only events
+   * that have been seen are present; the histogram count is the number of events.
+   */
+  public Map<String, Histogram> eventLatency() {
+    return eventLatency;
+  }
+
+  /** Time each AppSdk call blocked for, keyed by AppSdk method name. */
+  public Map<String, Histogram> sdkCallLatency() {
+    return sdkCallLatency;
+  }
+
+  /** How late playhead ticks ran relative to the whole second they were scheduled for. */
+  public Histogram tickJitter() {
+    return tickJitter;
+  }
+
+  /** Number of sessions whose playhead is currently being reported. */
+  public int activeTimers() {
+    return activeTimers;
+  }
+
+  /** AppSdk calls skipped because a stop and the following play were coalesced. */
+  public long coalescedSdkCalls() {
+    return coalescedSdkCalls;
+  }
+
+  /**
+   * Screen calls that did not load metadata because another screen followed within
+   * `screenDebounceMillis`, or because they repeated the screen loaded last within that window.
+   */
+  public long suppressedScreenLoads() {
+    return suppressedScreenLoads;
+  }
+
+  /**
+   * Video calls that were skipped because they could not change what Nielsen knows: a play while
+   * playing, a repeated stop or end, or content metadata that is already loaded. Always 0 unless
+   * `suppressRedundantCalls` is on.
+   */
+  public long suppressedSdkCalls() {
+    return suppressedSdkCalls;
+  }
+
+  /**
+   * Queued events that {@code trackBatch()} skipped because a later event in the same session
+   * undid them, such as a pause followed by a resume.
+   */
+  public long supersededEvents() {
+    return supersededEvents;
+  }
+
+  /**
+   * Time from the integration being requested to it handling events, including the replay of
+   * buffered calls when `asyncStartup` is on.
+   */
+  public long timeToReadyNanos() {
+    return timeToReadyNanos;
+  }
+
+  /** Track and screen calls buffered while the AppSdk was being built in the background. */
+  public long startupBufferedEvents() {
+    return startupBufferedEvents;
+  }
+
+  /** Track and screen calls dropped because the startup buffer was full. */
+  public long startupDroppedEvents() {
+    return startupDroppedEvents;
+  }
+
+  /** Content metadata reused from the cache instead of being built again from the same inputs. */
+  public long metadataCacheHits() {
+    return metadataCacheHits;
+  }
+
+  /** Content metadata built because the cache held none for the event's properties. */
+  public long metadataCacheMisses() {
+    return metadataCacheMisses;
+  }
+
+  /** AppSdk calls waiting in the `sdkQueueCapacity` queue; always 0 when calls are made inline. */
+  public int sdkQueueDepth() {
+    return sdkQueueDepth;
+  }
+
+  /** Largest number of AppSdk calls that have waited in the queue at once. */
+  public int sdkQueueMaxDepth() {
+    return sdkQueueMaxDepth;
+  }
+
+  /** AppSdk calls submitted to the queue, including those later dropped. */
+  public long queuedSdkCalls() {
+    return queuedSdkCalls;
+  }
+
+  /**
+   * AppSdk calls discarded because the queue was full, as `sdkQueueOverflow` decides, or because
+   * the integration was replaced. Playhead positions are discarded rather than waited for.
+   */
+  public long droppedSdkCalls() {
+    return droppedSdkCalls;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricsSnapshot{eventLatency="
+        + eventLatency
+        + ", sdkCallLatency="
+        + sdkCallLatency
+        + ", tickJitter="
+        + tickJitter
+        + ", activeTimers="
+        + activeTimers
+        + ", coalescedSdkCalls="
+        + coalescedSdkCalls
+        + ", suppressedScreenLoads="
+        + suppressedScreenLoads
+        + ", suppressedSdkCalls="
+        + suppressedSdkCalls
+        + ", supersededEvents="
+        + supersededEvents
+        + ", timeToReadyNanos="
+        + timeToReadyNanos
+        + ", startupBufferedEvents="
+        + startupBufferedEvents
+        + ", startupDroppedEvents="
+        + startupDroppedEvents
+        + ", metadataCacheHits="
+        + metadataCacheHits
+        + ", metadataCacheMisses="
+        + metadataCacheMisses
+        + ", sdkQueueDepth="
+        + sdkQueueDepth
+        + ", sdkQueueMaxDepth="
+        + sdkQueueMaxDepth
+        + ", queuedSdkCalls="
+        + queuedSdkCalls
+        + ", droppedSdkCalls="
+        + droppedSdkCalls
+        + '}';
+  }
+
+  /** Distribution of durations, bucketed by powers of two. */
+  public static final class Histogram {
+    private final long[] buckets;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    Histogram(long[] buckets, long count, long totalNanos, long maxNanos) {
+      this.buckets = buckets;
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long totalNanos() {
+      return totalNanos;
+    }
+
+    public long maxNanos() {
+      return maxNanos;
+    }
+
+    public long meanNanos() {
+      return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, never more than {@link #maxNanos()}.
+     *
+     * @param percentile between 0 and 100
+     */
+    public long percentileNanos(double percentile) {
+      long recorded = 0;
+      for (long bucket : buckets) {
+        recorded += bucket;
+      }
+      if (recorded == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(recorded * Math.max(0, Math.min(100, percentile)) / 100);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min(LatencyHistogram.upperBound(i), maxNanos);
+        }
+      }
+      return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram{count="
+          + count
+          + ", mean="
+          + meanNanos()
+          + ", p50="
+          + percentileNanos(50)
+          + ", p99="
+          + percentileNanos(99)
+          + ", max="
+          + maxNanos
+          + '}';
+    }
+  }
+}
@@ -5,8 +5,10 @@ import static com.segment.analytics.internal.Utils.isNullOrEmpty;
 import androidx.annotation.NonNull;
 
 import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
 import com.segment.analytics.Properties;
 import com.segment.analytics.ValueMap;
+import com.segment.analytics.integrations.BasePayload;
 import com.segment.analytics.integrations.Integration;
 import com.segment.analytics.integrations.Logger;
 import com.segment.analytics.integrations.ScreenPayload;
@@ -16,98 +18,49 @@ import com.segment.analytics.internal.Utils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class NielsenDCRIntegration extends Integration<AppSdk> {
-  public static final Factory FACTORY = NielsenDCRIntegrationFactory.create();
-
-  private Timer playheadTimer;
+  private static final NielsenDCRIntegrationFactory DEFAULT_FACTORY =
+      NielsenDCRIntegrationFactory.create();
+  public static final Factory FACTORY = DEFAULT_FACTORY;
+
+  // Used for video events that do not carry a `session_id`.
+  static final String DEFAULT_SESSION_ID = "";
+  private static final int CONTENT_METADATA_CACHE_SIZE = 32;
+  // Players do not always send Exited or Completed, so sessions that have not had an event for
+  // this long and are not playing are dropped when another session starts.
+  static final long ABANDONED_SESSION_NANOS = TimeUnit.MINUTES.toNanos(30);
+  // slot each property in MappingPlan.CONTENT_COPIES is copied to
+  private static final int[] CONTENT_COPY_SLOTS = copySlots(MappingPlan.CONTENT_COPIES);
+
+  private final PlayheadScheduler playheadScheduler;
+  private final SdkDispatcher sdk;
+  private final Metrics metrics;
+  private final TraceBuffer trace; // null unless tracing is enabled
+  private final SessionJournal journal; // null unless journaling is enabled
+  private final AppSdkPool appSdks; // null unless events are routed to more than one appid
+  private final ScreenDebouncer screens;
+  // checked before logging so the varargs array and message are not built when nobody reads them
+  private final boolean verbose;
+  private final ConcurrentMap<String, PlaybackSession> sessions = new ConcurrentHashMap<>();
+  // what each AppSdk has been told, kept only as long as the AppSdk itself
+  private final Map<AppSdk, AppSdkState> appSdkStates = new WeakHashMap<>();
+  final MetadataCache contentMetadataCache = new MetadataCache(CONTENT_METADATA_CACHE_SIZE);
+  private final MetadataBuilder screenMetadata = new MetadataBuilder(MetadataBuilder.SCREEN);
   private AppSdk appSdk;
   private final Logger logger;
-  private TimerTask monitorHeadPos;
-  private Settings settings;
-  long playheadPosition;
-
-  // reusable variables for `airdate` helper method
-  private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("yyyyMMdd HH:mm:ss");
-  private static final Pattern SHORT_DATE = Pattern.compile("^(\\d{4})-(\\d{2})-(\\d{2})$");
-  private static final Pattern LONG_DATE =
-      Pattern.compile("^(\\d{4})-(\\d{2})-(\\d{2})[tT](\\d{2}):(\\d{2}):(\\d{2})[zZ]$");
-  // add millisecond date pattern for longer dates; accept upper or lowercase T and Z
-  private static final Pattern MS_DATE =
-      Pattern.compile("^(\\d{4})-(\\d{2})-(\\d{2})[tT](\\d{2}):(\\d{2}):(\\d{2}).(\\d{3})[zZ]$");
-
-  private static final Map<String, String> CONTENT_FORMATTER =
-      Collections.unmodifiableMap(getContentFormatter());
-  private ValueMap properties;
-
-  private static Map<String, String> getContentFormatter() {
-    Map<String, String> contentFormatter = new LinkedHashMap<>();
-
-    contentFormatter.put("session_id", "sessionId");
-    contentFormatter.put("asset_id", "assetId");
-    contentFormatter.put("pod_id", "podId");
-    contentFormatter.put("total_length", "totalLength");
-    contentFormatter.put("full_episode", "fullEpisode");
-    contentFormatter.put("content_asset_id", "contentAssetId");
-    contentFormatter.put("ad_asset_id", "adAssetId");
-    contentFormatter.put("load_type", "loadType");
-
-    return contentFormatter;
-  }
-
-  private static final Map<String, String> AD_FORMATTER =
-      Collections.unmodifiableMap(getAdFormatter());
-
-  private static Map<String, String> getAdFormatter() {
-    Map<String, String> adFormatter = new LinkedHashMap<>();
-
-    adFormatter.put("session_id", "sessionId");
-    adFormatter.put("asset_id", "assetId");
-    adFormatter.put("pod_id", "podId");
-    adFormatter.put("pod_position", "podPosition");
-    adFormatter.put("pod_length", "podLength");
-    adFormatter.put("total_length", "totalLength");
-    adFormatter.put("load_type", "loadType");
-
-    return adFormatter;
-  }
-
-  private static final Map<String, String> CONTENT_MAP =
-      Collections.unmodifiableMap(getContentMap());
-
-  private static Map<String, String> getContentMap() {
-    Map<String, String> contentMap = new LinkedHashMap<>();
-
-    contentMap.put("assetId", "assetid");
-    contentMap.put("contentAssetId", "assetid");
-    contentMap.put("title", "title");
-    contentMap.put("program", "program");
-
-    return contentMap;
-  }
-
-  private static final Map<String, String> AD_MAP = Collections.unmodifiableMap(getAdMap());
-
-  private static Map<String, String> getAdMap() {
-    Map<String, String> adMap = new LinkedHashMap<>();
-
-    adMap.put("assetId", "assetid");
-    adMap.put("type", "type");
-    adMap.put("title", "title");
-
-    return adMap;
-  }
+  // swapped as a whole when settings are reloaded; see reload()
+  private volatile MappingPlan plan;
 
   static class Settings {
     String adAssetIdPropertyName;
@@ -117,7 +70,13 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
     String subbrandPropertyName;
     String contentLengthPropertyName;
     String customSectionProperty;
+    String appIdPropertyName;
     Boolean sendCurrentTimeLivestream;
+    Map<String, String> eventAliases; // custom event name -> video spec event name
+    long coalesceWindowMillis;
+    long screenDebounceMillis;
+    boolean suppressRedundantCalls;
+    int traceBufferSize;
 
     Settings() {
       // Null by default
@@ -128,47 +87,279 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
       subbrandPropertyName = null;
       contentLengthPropertyName = null;
       customSectionProperty = null;
+      appIdPropertyName = null;
       sendCurrentTimeLivestream = false;
+      eventAliases = null;
+      coalesceWindowMillis = 0;
+      screenDebounceMillis = 0;
+      suppressRedundantCalls = false;
+      traceBufferSize = 0;
     }
   }
 
+  private static int[] copySlots(String[] copies) {
+    int[] slots = new int[copies.length / 2];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = MetadataBuilder.slot(copies[i * 2 + 1]);
+    }
+    return slots;
+  }
+
   NielsenDCRIntegration(AppSdk appSdk, Settings settings, Logger logger) {
+    this(appSdk, settings, logger, PlayheadScheduler.shared());
+  }
+
+  NielsenDCRIntegration(
+      AppSdk appSdk, Settings settings, Logger logger, PlayheadScheduler playheadScheduler) {
+    this(appSdk, MappingPlan.compile(settings), logger, playheadScheduler, new Metrics());
+  }
+
+  private NielsenDCRIntegration(
+      AppSdk appSdk,
+      MappingPlan plan,
+      Logger logger,
+      PlayheadScheduler playheadScheduler,
+      Metrics metrics) {
+    this(
+        appSdk,
+        plan,
+        logger,
+        playheadScheduler,
+        new MeasuredSdkDispatcher(metrics),
+        metrics,
+        null,
+        null);
+  }
+
+  /**
+   * @param metrics the same instance the dispatcher records AppSdk call latency in
+   * @param journal records the calls made for each session, or null
+   * @param appSdks the AppSdk instances events are routed to by appid, or null to send every event
+   *     to {@code appSdk}
+   */
+  NielsenDCRIntegration(
+      AppSdk appSdk,
+      MappingPlan plan,
+      Logger logger,
+      PlayheadScheduler playheadScheduler,
+      SdkDispatcher sdk,
+      Metrics metrics,
+      SessionJournal journal,
+      AppSdkPool appSdks) {
     this.appSdk = appSdk;
-    this.settings = settings;
+    this.plan = plan;
     this.logger = logger;
+    this.playheadScheduler = playheadScheduler;
+    this.sdk = sdk;
+    this.metrics = metrics;
+    this.journal = journal;
+    this.appSdks = appSdks;
+    this.trace = plan.traceBufferSize > 0 ? new TraceBuffer(plan.traceBufferSize) : null;
+    this.verbose = logger.logLevel == Analytics.LogLevel.VERBOSE;
+    this.screens =
+        new ScreenDebouncer(
+            playheadScheduler,
+            metrics,
+            new ScreenDebouncer.Loader() {
+              @Override
+              public void load(ScreenDebouncer.Screen screen) {
+                loadScreenMetadata(screen.appSdk, screen.metadata);
+              }
+            });
+    metrics.contentMetadataCache = contentMetadataCache;
   }
 
-  private void startPlayheadTimer(final ValueMap properties, final AppSdk nielsen) {
-    if (playheadTimer != null) {
-      return;
+  /**
+   * Switches to settings compiled from a settings refresh. Sessions, playheads and the AppSdk are
+   * left alone; metadata cached under the old settings is dropped.
+   */
+  void reload(MappingPlan plan) {
+    this.plan = plan;
+    contentMetadataCache.clear();
+  }
+
+  /**
+   * Called when the app goes to the background: suspends the playhead of every session that does
+   * not play in the background, and loads a screen still waiting for navigation to settle.
+   */
+  void onBackground() {
+    screens.flush();
+    int suspended = 0;
+    for (PlaybackSession session : sessions.values()) {
+      if (session.suspend()) {
+        suspended++;
+      }
+    }
+    if (suspended > 0 && verbose) {
+      logger.verbose("Suspended %s playhead(s) in the background.", suspended);
     }
-    playheadPosition = getPlayheadPosition(properties);
-    playheadTimer = new Timer();
-    monitorHeadPos =
-        new TimerTask() {
+  }
 
-          @Override
-          public void run() {
-            setPlayheadPosition();
-          }
+  /** Called when the app comes back to the foreground: resumes suspended playheads. */
+  void onForeground() {
+    int resumed = 0;
+    for (PlaybackSession session : sessions.values()) {
+      if (session.resume()) {
+        resumed++;
+      }
+    }
+    if (resumed > 0 && verbose) {
+      logger.verbose("Resumed %s playhead(s) in the foreground.", resumed);
+    }
+  }
 
-          void setPlayheadPosition() {
-            nielsen.setPlayheadPosition(playheadPosition);
-            // ++ postfixed means we report the original position and then increment by 1 which is desired behavior for Nielsen
-            playheadPosition++;
-          }
-        };
+  /**
+   * Returns a copy of the counters and latency histograms recorded so far by the integration
+   * {@link #FACTORY} created last, or null if Analytics has not asked it for one yet. With
+   * `asyncStartup` on, the startup counters can be read while the AppSdk is still being built.
+   */
+  public static MetricsSnapshot currentMetrics() {
+    return DEFAULT_FACTORY.metrics();
+  }
 
-    logger.verbose("playheadTimer scheduled");
-    playheadTimer.schedule(monitorHeadPos, 0, TimeUnit.SECONDS.toMillis(1));
+  /** Returns a copy of the counters and latency histograms recorded so far. */
+  MetricsSnapshot metrics() {
+    return metrics.snapshot();
   }
 
-  private void stopPlayheadTimer() {
-    if (playheadTimer != null) {
-      playheadTimer.cancel();
-      monitorHeadPos.cancel();
-      playheadTimer = null;
-      logger.verbose("playheadTimer stopped");
+  /**
+   * Returns the most recent AppSdk calls of the integration {@link #FACTORY} created last, oldest
+   * first, one per line, or an empty string unless the `traceBufferSize` setting is positive.
+   */
+  public static String currentTrace() {
+    return DEFAULT_FACTORY.dumpTrace();
+  }
+
+  /**
+   * Returns the most recent AppSdk calls, oldest first, one per line, or an empty string unless the
+   * `traceBufferSize` setting is positive.
+   */
+  String dumpTrace() {
+    return trace == null ? "" : trace.dump();
+  }
+
+  /**
+   * Returns the session for the `session_id` in the given video properties, creating it if this is
+   * the first event seen for that session. Like {@link #toCamelCase}, `session_id` takes precedence
+   * over `sessionId`. A new session is bound to the AppSdk for the event's appid for its lifetime.
+   */
+  PlaybackSession session(@NonNull ValueMap properties, @NonNull Map<String, ?> options) {
+    String sessionId = sessionId(properties);
+    long now = playheadScheduler.nanoTime();
+    PlaybackSession session = sessions.get(sessionId);
+    if (session == null) {
+      dropAbandonedSessions(now);
+      String appId = appId(properties, options);
+      AppSdk sessionAppSdk = appSdks == null ? appSdk : appSdks.acquire(appId);
+      SdkDispatcher sessionSdk = sdk;
+      if (journal != null) {
+        // sessions that fell back to the default AppSdk are closed on it after a crash
+        sessionSdk = journal.forSession(sessionId, sessionAppSdk == appSdk ? null : appId, sdk);
+      }
+      PlaybackSession created =
+          new PlaybackSession(
+              sessionId,
+              sessionAppSdk,
+              appSdkState(sessionAppSdk),
+              sessionSdk,
+              playheadScheduler,
+              metrics);
+      session = sessions.putIfAbsent(sessionId, created);
+      if (session == null) {
+        session = created;
+      } else if (appSdks != null) {
+        appSdks.release(sessionAppSdk);
+      }
+    }
+    session.touch(now);
+    Object backgroundAudio = options.get("backgroundAudio");
+    if (backgroundAudio != null) {
+      session.setBackgroundPlayback(Boolean.parseBoolean(String.valueOf(backgroundAudio)));
+    }
+    return session;
+  }
+
+  /** Forgets sessions the player left without exiting them; nothing is sent to the AppSdk. */
+  private void dropAbandonedSessions(long now) {
+    for (PlaybackSession session : sessions.values()) {
+      if (session.isAbandoned(now, ABANDONED_SESSION_NANOS)
+          && sessions.remove(session.id, session)) {
+        forget(session);
+        if (verbose) {
+          logger.verbose("Dropped abandoned session %s", session.id);
+        }
+      }
+    }
+  }
+
+  private static String sessionId(@NonNull ValueMap properties) {
+    String sessionId = properties.getString("session_id");
+    if (sessionId == null) {
+      sessionId = properties.getString("sessionId");
+    }
+    return isNullOrEmpty(sessionId) ? DEFAULT_SESSION_ID : sessionId;
+  }
+
+  /**
+   * The appid an event is for: the `appId` integration option, else the property named by the
+   * `appIdPropertyName` setting. Null means the appid from the integration settings.
+   */
+  private String appId(@NonNull ValueMap properties, @NonNull Map<String, ?> options) {
+    Object appId = options.get("appId");
+    if (appId != null) {
+      return String.valueOf(appId);
+    }
+    String appIdKey = plan.appIdKey;
+    return appIdKey == null ? null : properties.getString(appIdKey);
+  }
+
+  /** Returns the active session with the given id, or null if there is none. */
+  PlaybackSession findSession(String sessionId) {
+    return sessions.get(sessionId);
+  }
+
+  private void startPlayheadTimer(PlaybackSession session, ValueMap properties) {
+    if (session.startPlayhead(getPlayheadPosition(properties)) && verbose) {
+      logger.verbose("playheadTimer scheduled for session %s", session.id);
+    }
+  }
+
+  private void stopPlayheadTimer(PlaybackSession session) {
+    if (session.stopPlayhead() && verbose) {
+      logger.verbose("playheadTimer stopped for session %s", session.id);
+    }
+  }
+
+  /** Returns the state shared by everything that calls {@code appSdk}. */
+  private AppSdkState appSdkState(AppSdk appSdk) {
+    synchronized (appSdkStates) {
+      AppSdkState state = appSdkStates.get(appSdk);
+      if (state == null) {
+        state = new AppSdkState();
+        appSdkStates.put(appSdk, state);
+      }
+      return state;
+    }
+  }
+
+  /**
+   * Stops the playhead and forgets the session once the player is done with it. Called after the
+   * session's last AppSdk call, so nothing is journaled or made on a pooled AppSdk afterwards.
+   */
+  private void endSession(PlaybackSession session) {
+    stopPlayheadTimer(session);
+    sessions.remove(session.id, session);
+    forget(session);
+  }
+
+  /** Releases what the integration holds for a session that has been removed. */
+  private void forget(PlaybackSession session) {
+    contentMetadataCache.evictSession(session.id);
+    if (journal != null) {
+      journal.forget(session.id);
+    }
+    if (appSdks != null) {
+      appSdks.release(session.appSdk);
     }
   }
 
@@ -182,7 +373,7 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
 
     Calendar calendar = Calendar.getInstance();
     long millis = calendar.getTimeInMillis();
-    if (settings.sendCurrentTimeLivestream) {
+    if (plan.sendCurrentTimeLivestream) {
       long currentUtcTime = TimeUnit.MILLISECONDS.toSeconds(millis);
       return currentUtcTime;
     } else {
@@ -198,110 +389,85 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
    *
    * <p>Segment's video spec: https://segment.com/docs/spec/video/
    *
+   * <p>The result is a read-only {@link CamelCaseView} over {@code properties}, so the cost does
+   * not grow with the number of custom properties on the event.
+   *
    * @param properties Segment event payload properties
-   * @param formatter Either CONTENT_FORMATTER or AD_FORMATTER
+   * @param formatter Either CONTENT_FORMATTER or AD_FORMATTER from {@link MappingPlan}
    * @return properties Segment event payload properties with keys formatter per Segment video spec
    */
-  private ValueMap toCamelCase(
-      @NonNull ValueMap properties, @NonNull Map<String, String> formatter) {
-    ValueMap mappedProperties = new ValueMap();
-    mappedProperties.putAll(properties);
-
-    for (Map.Entry<String, String> entry : formatter.entrySet()) {
-      String key = entry.getKey();
-      String value = entry.getValue();
-      if (mappedProperties.get(key) != null) {
-        mappedProperties.put(value, mappedProperties.get(key));
-        mappedProperties.remove(key);
-      }
-    }
-
-    return mappedProperties;
+  ValueMap toCamelCase(@NonNull ValueMap properties, @NonNull String[] formatter) {
+    return new ValueMap(new CamelCaseView(properties, CamelCaseView.Renames.of(formatter)));
   }
 
-  private JSONObject mapSpecialKeys(
-      @NonNull ValueMap properties, @NonNull Map<String, String> mapper) throws JSONException {
-    JSONObject metadata = new JSONObject();
-
-    // Map special keys and preserve only the special keys.
-    for (Map.Entry<String, ?> entry : properties.entrySet()) {
-      String key = entry.getKey();
-      String mappedKey = mapper.get(key);
-      Object value = entry.getValue();
-      if (!isNullOrEmpty(mappedKey)) {
-        metadata.put(mappedKey, String.valueOf(value));
+  private void fillContentMetadata(
+      @NonNull MetadataBuilder contentMetadata,
+      @NonNull ValueMap properties,
+      @NonNull Map<String, ?> options) {
+    contentMetadata.clear();
+
+    // copy special keys verbatim
+    String[] copies = MappingPlan.CONTENT_COPIES;
+    for (int i = 0; i < copies.length; i += 2) {
+      Object value = properties.get(copies[i]);
+      if (value != null || properties.containsKey(copies[i])) {
+        contentMetadata.set(CONTENT_COPY_SLOTS[i / 2], String.valueOf(value));
       }
     }
 
-    return metadata;
-  }
-
-  private @NonNull JSONObject buildContentMetadata(
-      @NonNull ValueMap properties, @NonNull Map<String, ?> options) throws JSONException {
-
-    JSONObject contentMetadata = mapSpecialKeys(properties, CONTENT_MAP);
-
     // map payload options to Nielsen content metadata fields
     if (options.containsKey("pipmode")) {
       String pipmode = String.valueOf(options.get("pipmode"));
-      contentMetadata.put("pipmode", pipmode);
+      contentMetadata.set(MetadataBuilder.PIPMODE, pipmode);
     } else {
-      contentMetadata.put("pipmode", "false");
+      contentMetadata.set(MetadataBuilder.PIPMODE, "false");
     }
 
     if (options.containsKey("crossId1")) {
       String crossId1 = String.valueOf(options.get("crossId1"));
-      contentMetadata.put("crossId1", crossId1);
+      contentMetadata.set(MetadataBuilder.CROSSID1, crossId1);
     }
 
     if (options.containsKey("crossId2")) {
       String crossId2 = String.valueOf(options.get("crossId2"));
-      contentMetadata.put("crossId2", crossId2);
+      contentMetadata.set(MetadataBuilder.CROSSID2, crossId2);
     }
 
     if (options.containsKey("segB")) {
       String segB = String.valueOf(options.get("segB"));
-      contentMetadata.put("segB", segB);
+      contentMetadata.set(MetadataBuilder.SEGB, segB);
     }
 
     if (options.containsKey("segC")) {
       String segC = String.valueOf(options.get("segC"));
-      contentMetadata.put("segC", segC);
+      contentMetadata.set(MetadataBuilder.SEGC, segC);
     }
 
     if (options.containsKey("hasAds")
         && options.get("hasAds") != null
         && "true".equals(String.valueOf(options.get("hasAds")))) {
-      contentMetadata.put("hasAds", "1");
+      contentMetadata.set(MetadataBuilder.HASADS, "1");
     } else {
-      contentMetadata.put("hasAds", "0");
+      contentMetadata.set(MetadataBuilder.HASADS, "0");
     }
 
     // map settings to Nielsen content metadata fields
     String contentAssetId = fetchContentAssetId(properties);
-    contentMetadata.put("assetid", contentAssetId);
+    contentMetadata.set(MetadataBuilder.ASSETID, contentAssetId);
 
-    String clientIdPropertyName =
-        (settings.clientIdPropertyName != null) ? settings.clientIdPropertyName : "clientId";
-    String clientId = properties.getString(clientIdPropertyName);
+    String clientId = properties.getString(plan.clientIdKey);
     if (clientId != null && !clientId.isEmpty()) {
-      contentMetadata.put("clientid", clientId);
+      contentMetadata.set(MetadataBuilder.CLIENTID, clientId);
     }
 
-    String subbrandPropertyName =
-        (settings.subbrandPropertyName != null) ? settings.subbrandPropertyName : "subbrand";
-    String subbrand = properties.getString(subbrandPropertyName);
+    String subbrand = properties.getString(plan.subbrandKey);
     if (subbrand != null && !subbrand.isEmpty()) {
-      contentMetadata.put("subbrand", subbrand);
+      contentMetadata.set(MetadataBuilder.SUBBRAND, subbrand);
     }
 
-    String lengthPropertyName =
-        (settings.contentLengthPropertyName != null)
-            ? settings.contentLengthPropertyName
-            : "totalLength";
-    if (properties.containsKey(lengthPropertyName)) {
-      String length = properties.getString(lengthPropertyName);
-      contentMetadata.put("length", length);
+    if (properties.containsKey(plan.contentLengthKey)) {
+      String length = properties.getString(plan.contentLengthKey);
+      contentMetadata.set(MetadataBuilder.LENGTH, length);
     }
 
     // map properties with non-String values to Nielsen content metadata fields
@@ -310,7 +476,7 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
       if (airdate != null && !airdate.isEmpty()) {
         airdate = formatAirdate(properties.getString("airdate"));
       }
-      contentMetadata.put("airdate", airdate);
+      contentMetadata.set(MetadataBuilder.AIRDATE, airdate);
     }
 
     String adLoadType = "";
@@ -323,26 +489,43 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
       }
     }
     if (adLoadType.equals("dynamic")) {
-      contentMetadata.put("adloadtype", "2");
+      contentMetadata.set(MetadataBuilder.ADLOADTYPE, "2");
     } else {
-      contentMetadata.put("adloadtype", "1");
+      contentMetadata.set(MetadataBuilder.ADLOADTYPE, "1");
     }
 
     boolean fullEpisodeStatus = properties.getBoolean("fullEpisode", false);
-    contentMetadata.put("isfullepisode", fullEpisodeStatus ? "y" : "n");
-    contentMetadata.put("type", "content");
+    contentMetadata.set(MetadataBuilder.ISFULLEPISODE, fullEpisodeStatus ? "y" : "n");
+    contentMetadata.set(MetadataBuilder.TYPE, "content");
+  }
 
+  /**
+   * Returns content metadata for the session, reusing the metadata built for an earlier event when
+   * none of the properties or options it is built from have changed.
+   */
+  private @NonNull JSONObject contentMetadata(
+      @NonNull PlaybackSession session,
+      @NonNull ValueMap properties,
+      @NonNull Map<String, ?> options)
+      throws JSONException {
+    Object[] inputs = plan.contentInputs(properties, options);
+    String key = MetadataCache.key(session.id, fetchContentAssetId(properties));
+    JSONObject contentMetadata = contentMetadataCache.get(key, inputs);
+    if (contentMetadata == null) {
+      synchronized (session.contentMetadata) {
+        fillContentMetadata(session.contentMetadata, properties, options);
+        contentMetadata = session.contentMetadata.build();
+      }
+      contentMetadataCache.put(key, inputs, contentMetadata);
+    }
     return contentMetadata;
   }
 
-  private @NonNull JSONObject buildAdMetadata(@NonNull ValueMap properties) throws JSONException {
-
-    JSONObject adMetadata = mapSpecialKeys(properties, AD_MAP);
+  private void fillAdMetadata(@NonNull MetadataBuilder adMetadata, @NonNull ValueMap properties) {
+    adMetadata.clear();
 
-    String adAssetIdPropertyName =
-        (settings.adAssetIdPropertyName != null) ? settings.adAssetIdPropertyName : "assetId";
-    String assetId = properties.getString(adAssetIdPropertyName);
-    adMetadata.put("assetid", assetId);
+    String assetId = properties.getString(plan.adAssetIdKey);
+    adMetadata.set(MetadataBuilder.ASSETID, assetId);
 
     String adType = properties.getString("type");
     if (adType != null && !adType.isEmpty()) {
@@ -350,239 +533,424 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
     } else {
       adType = "ad";
     }
-    adMetadata.put("type", adType);
+    adMetadata.set(MetadataBuilder.TYPE, adType);
 
     String title = String.valueOf(properties.get("title"));
-    adMetadata.put("title", title);
+    adMetadata.set(MetadataBuilder.TITLE, title);
+  }
 
-    return adMetadata;
+  /** Returns ad metadata for the session, the same object as last time for the same ad. */
+  private @NonNull JSONObject adMetadata(
+      @NonNull PlaybackSession session, @NonNull ValueMap properties) throws JSONException {
+    synchronized (session.adMetadata) {
+      fillAdMetadata(session.adMetadata, properties);
+      return session.adMetadata.build();
+    }
   }
 
   public String formatAirdate(String airdate) {
-    String finalDate = airdate;
-
     // assuming 'airdate' was passed as ISO date string per Segment spec
-    try {
-      Matcher s = SHORT_DATE.matcher(finalDate);
-      Matcher l = LONG_DATE.matcher(finalDate);
-      Matcher m = MS_DATE.matcher(finalDate);
-
-      if (s.find()) {
-        finalDate =
-            new StringBuilder() //
-                .append(s.group(1))
-                .append(s.group(2))
-                .append(s.group(3))
-                .append(" ")
-                .append("00")
-                .append(":")
-                .append("00")
-                .append(":")
-                .append("00")
-                .toString();
-      } else if (l.find()) {
-        finalDate =
-            new StringBuilder() //
-                .append(l.group(1))
-                .append(l.group(2))
-                .append(l.group(3))
-                .append(" ")
-                .append(l.group(4))
-                .append(":")
-                .append(l.group(5))
-                .append(":")
-                .append(l.group(6))
-                .toString();
-      } else if (m.find()) {
-        finalDate =
-            new StringBuilder() //
-                .append(m.group(1))
-                .append(m.group(2))
-                .append(m.group(3))
-                .append(" ")
-                .append(m.group(4))
-                .append(":")
-                .append(m.group(5))
-                .append(":")
-                .append(m.group(6))
-                .toString();
-      } else {
-        throw new Error("Error parsing airdate from ISO date format.");
-      }
-    } catch (Throwable e) {
+    String finalDate = AirdateFormatter.formatIso(airdate);
+    if (finalDate != null) {
+      return finalDate;
+    }
+    if (verbose) {
       logger.verbose("Error parsing airdate from ISO date format.");
+    }
 
-      // if above fail, treat as Date object
-      try {
-        finalDate = FORMATTER.format(FORMATTER.parse(airdate));
-      } catch (ParseException ex) {
-        logger.verbose("Error parsing Date object. Will not reformat date string.");
-      }
+    // if above fail, treat as Date object
+    finalDate = AirdateFormatter.formatDate(airdate);
+    if (finalDate != null) {
+      return finalDate;
     }
+    if (verbose) {
+      logger.verbose("Error parsing Date object. Will not reformat date string.");
+    }
+    return airdate;
+  }
 
-    return finalDate;
+  private static void fillChannelInfo(
+      @NonNull MetadataBuilder channelInfo, @NonNull Map<String, ?> options) {
+    channelInfo.clear();
+
+    if (options.containsKey("channelName")) {
+      channelInfo.set(MetadataBuilder.CHANNEL_NAME, String.valueOf(options.get("channelName")));
+    } else {
+      channelInfo.set(MetadataBuilder.CHANNEL_NAME, "defaultChannelName");
+    }
+
+    if (options.containsKey("mediaUrl")) {
+      channelInfo.set(MetadataBuilder.MEDIA_URL, String.valueOf(options.get("mediaUrl")));
+    } else {
+      channelInfo.set(MetadataBuilder.MEDIA_URL, "");
+    }
   }
 
-  private void trackVideoPlayback(
-      TrackPayload track, ValueMap properties, Map<String, Object> nielsenOptions)
+  /** Returns channel info for the session, the same object as last time for the same channel. */
+  private @NonNull JSONObject channelInfo(
+      @NonNull PlaybackSession session, @NonNull Map<String, ?> options) throws JSONException {
+    synchronized (session.channelInfo) {
+      fillChannelInfo(session.channelInfo, options);
+      return session.channelInfo.build();
+    }
+  }
+
+  // AppSdk calls made for events. Each moves the state of the session's AppSdk on, goes through
+  // the session's dispatcher and is then traced and logged.
+
+  /**
+   * @param content whether {@code metadata} is content metadata, which is not loaded again while
+   *     it is current; ads are loaded every time they start, even when the same ad repeats
+   */
+  private void loadMetadata(
+      int event, PlaybackSession session, JSONObject metadata, boolean content) {
+    // a screen still waiting out the debounce window would otherwise replace this metadata
+    screens.flush();
+    boolean loaded = session.appSdkState.load(metadata, content);
+    if (plan.suppressRedundantCalls && loaded) {
+      suppressed(SdkDispatcher.LOAD_METADATA, session);
+      return;
+    }
+    session.sdk.loadMetadata(session.appSdk, metadata);
+    traceSdkCall(event, SdkDispatcher.LOAD_METADATA, session, metadata);
+  }
+
+  private void loadScreenMetadata(AppSdk appSdk, JSONObject metadata) {
+    // the screen replaces whatever content the sessions on this AppSdk had loaded
+    appSdkState(appSdk).load(metadata, false);
+    sdk.loadMetadata(appSdk, metadata);
+    traceSdkCall(Metrics.SCREEN, SdkDispatcher.LOAD_METADATA, null, metadata);
+  }
+
+  private void play(int event, PlaybackSession session, Map<String, ?> options)
       throws JSONException {
-    String event = track.event();
+    if (isRedundant(SdkDispatcher.PLAY, session)) {
+      return;
+    }
+    JSONObject channelInfo = channelInfo(session, options);
+    session.sdk.play(session.appSdk, channelInfo);
+    traceSdkCall(event, SdkDispatcher.PLAY, session, channelInfo);
+  }
 
-    ValueMap contentProperties = toCamelCase(properties, CONTENT_FORMATTER);
-    JSONObject contentMetadata = buildContentMetadata(contentProperties, nielsenOptions);
+  private void stop(int event, PlaybackSession session) {
+    if (isRedundant(SdkDispatcher.STOP, session)) {
+      return;
+    }
+    session.sdk.stop(session.appSdk);
+    traceSdkCall(event, SdkDispatcher.STOP, session, null);
+  }
 
-    JSONObject channelInfo = new JSONObject();
+  private void end(int event, PlaybackSession session) {
+    if (isRedundant(SdkDispatcher.END, session)) {
+      return;
+    }
+    session.sdk.end(session.appSdk);
+    traceSdkCall(event, SdkDispatcher.END, session, null);
+  }
 
-    if (nielsenOptions.containsKey("channelName")) {
-      channelInfo.put("channelName", String.valueOf(nielsenOptions.get("channelName")));
-    } else {
-      channelInfo.put("channelName", "defaultChannelName");
+  /** Holds back the stop for {@code event}, sending it if the coalescing window closes first. */
+  private boolean deferStop(final int event, final PlaybackSession session) {
+    return session.deferStop(
+        plan.coalesceWindowMillis,
+        new Runnable() {
+          @Override
+          public void run() {
+            flushPendingStop(event, session);
+          }
+        });
+  }
+
+  /**
+   * Sends a stop held back by {@link #deferStop} right away, if there is one, like any other stop.
+   *
+   * @return false if there was no stop held back
+   */
+  private boolean flushPendingStop(int event, PlaybackSession session) {
+    synchronized (session) {
+      if (!session.takePendingStop()) {
+        return false;
+      }
+      stop(event, session);
+      return true;
     }
+  }
 
-    if (nielsenOptions.containsKey("mediaUrl")) {
-      channelInfo.put("mediaURL", String.valueOf(nielsenOptions.get("mediaUrl")));
-    } else {
-      channelInfo.put("mediaURL", "");
+  /**
+   * How many of the stop and play a dropped deferred stop stood for would have reached the AppSdk.
+   * Neither was sent, so the AppSdk is still in the state the stop found it in.
+   */
+  private int elidedCalls(PlaybackSession session) {
+    if (!plan.suppressRedundantCalls) {
+      return 2;
+    }
+    int state = session.appSdkState.state();
+    int elided = 0;
+    if (!AppSdkState.isRedundant(SdkDispatcher.STOP, state)) {
+      elided++;
+      state = AppSdkState.STOPPED;
     }
+    if (!AppSdkState.isRedundant(SdkDispatcher.PLAY, state)) {
+      elided++;
+    }
+    return elided;
+  }
+
+  /** Moves the session's AppSdk on for {@code method}; reports whether it can be skipped. */
+  private boolean isRedundant(int method, PlaybackSession session) {
+    int previous = session.appSdkState.advance(method);
+    if (plan.suppressRedundantCalls && AppSdkState.isRedundant(method, previous)) {
+      suppressed(method, session);
+      return true;
+    }
+    return false;
+  }
+
+  private void suppressed(int method, PlaybackSession session) {
+    metrics.suppressedSdkCalls.incrementAndGet();
+    if (verbose) {
+      logger.verbose(
+          "appSdk.%s() skipped for session %s, the AppSdk is already %s",
+          SdkDispatcher.METHOD_NAMES[method],
+          session.id,
+          AppSdkState.STATE_NAMES[session.appSdkState.state()]);
+    }
+  }
+
+  private void traceSdkCall(int event, int method, PlaybackSession session, JSONObject argument) {
+    if (trace != null) {
+      trace.record(event, method, session == null ? null : session.id, argument);
+    }
+    if (verbose) {
+      logger.verbose(
+          "appSdk.%s(%s)", SdkDispatcher.METHOD_NAMES[method], argument == null ? "" : argument);
+    }
+  }
+
+  // Metadata and channel info are only built on the paths that hand them to the AppSdk; stop-type
+  // events make up a large share of video traffic and need neither.
+  private void trackVideoPlayback(
+      int event, ValueMap properties, Map<String, Object> nielsenOptions) throws JSONException {
+    PlaybackSession session = session(properties, nielsenOptions);
 
     switch (event) {
         // Nielsen requires we load content metadata and call play upon playback start
-      case "Video Playback Started":
-        appSdk.loadMetadata(contentMetadata);
-        logger.verbose("appSdk.loadMetadata(%s)", contentMetadata);
-        startPlayheadTimer(properties, appSdk);
-        appSdk.play(channelInfo);
-        logger.verbose("appSdk.play(%s)", channelInfo);
+      case EventTable.PLAYBACK_STARTED:
+        flushPendingStop(event, session);
+        ValueMap contentProperties = toCamelCase(properties, MappingPlan.CONTENT_FORMATTER);
+        JSONObject contentMetadata = contentMetadata(session, contentProperties, nielsenOptions);
+        loadMetadata(event, session, contentMetadata, true);
+        startPlayheadTimer(session, properties);
+        play(event, session, nielsenOptions);
         break;
-      case "Video Playback Resumed":
-      case "Video Playback Seek Completed":
-      case "Video Playback Buffer Completed":
-        startPlayheadTimer(properties, appSdk);
-        appSdk.play(channelInfo);
-        logger.verbose("appSdk.play(%s)", channelInfo);
+      case EventTable.PLAYBACK_RESUMED:
+      case EventTable.PLAYBACK_SEEK_COMPLETED:
+      case EventTable.PLAYBACK_BUFFER_COMPLETED:
+        if (session.resumePendingStop(getPlayheadPosition(properties))) {
+          // Nielsen never saw the stop, so it needs no play either
+          metrics.coalescedSdkCalls.addAndGet(elidedCalls(session));
+          if (verbose) {
+            logger.verbose("appSdk.stop() and appSdk.play() coalesced for session %s", session.id);
+          }
+          break;
+        }
+        startPlayheadTimer(session, properties);
+        play(event, session, nielsenOptions);
         break;
-      case "Video Playback Paused":
-      case "Video Playback Seek Started":
-      case "Video Playback Buffer Started":
-      case "Video Playback Interrupted":
-      case "Video Playback Exited":
-        stopPlayheadTimer();
-        appSdk.stop();
-        logger.verbose("appSdk.stop()");
+      case EventTable.PLAYBACK_SEEK_STARTED:
+      case EventTable.PLAYBACK_BUFFER_STARTED:
+        // seeks and rebuffers usually end quickly, so hold the stop back when configured to
+        if (plan.coalesceWindowMillis > 0 && deferStop(event, session)) {
+          break;
+        }
+        stopPlayheadTimer(session);
+        stop(event, session);
         break;
-      case "Video Playback Completed":
-        stopPlayheadTimer();
-        appSdk.end();
-        logger.verbose("appSdk.end()");
+      case EventTable.PLAYBACK_PAUSED:
+      case EventTable.PLAYBACK_INTERRUPTED:
+        if (flushPendingStop(event, session)) {
+          // already stopped by the deferred stop
+          break;
+        }
+        stopPlayheadTimer(session);
+        stop(event, session);
+        break;
+      case EventTable.PLAYBACK_EXITED:
+        boolean stopped = flushPendingStop(event, session);
+        stopPlayheadTimer(session);
+        if (!stopped) {
+          stop(event, session);
+        }
+        endSession(session);
+        break;
+      case EventTable.PLAYBACK_COMPLETED:
+        flushPendingStop(event, session);
+        stopPlayheadTimer(session);
+        end(event, session);
+        endSession(session);
         break;
     }
   }
 
   private void trackVideoContent(
-      TrackPayload track, Properties properties, Map<String, Object> nielsenOptions)
-      throws JSONException {
-    String event = track.event();
-
-    ValueMap contentProperties = toCamelCase(properties, CONTENT_FORMATTER);
-    JSONObject contentMetadata = buildContentMetadata(contentProperties, nielsenOptions);
+      int event, Properties properties, Map<String, Object> nielsenOptions) throws JSONException {
+    PlaybackSession session = session(properties, nielsenOptions);
+    flushPendingStop(event, session);
 
     switch (event) {
-      case "Video Content Started":
-        startPlayheadTimer(contentProperties, appSdk);
-        appSdk.loadMetadata(contentMetadata);
-        logger.verbose("appSdk.loadMetadata(%s)", contentMetadata);
+      case EventTable.CONTENT_STARTED:
+        startPlayheadTimer(session, properties);
+        ValueMap contentProperties = toCamelCase(properties, MappingPlan.CONTENT_FORMATTER);
+        JSONObject contentMetadata = contentMetadata(session, contentProperties, nielsenOptions);
+        loadMetadata(event, session, contentMetadata, true);
         break;
 
-      case "Video Content Playing":
-        startPlayheadTimer(contentProperties, appSdk);
+      case EventTable.CONTENT_PLAYING:
+        startPlayheadTimer(session, properties);
         break;
 
-      case "Video Content Completed":
-        appSdk.stop();
-        stopPlayheadTimer();
+      case EventTable.CONTENT_COMPLETED:
+        stop(event, session);
+        stopPlayheadTimer(session);
         break;
     }
   }
 
-  private void trackVideoAd(
-      TrackPayload track, Properties properties, Map<String, Object> nielsenOptions)
+  private void trackVideoAd(int event, Properties properties, Map<String, Object> nielsenOptions)
       throws JSONException {
-    String event = track.event();
-
-    ValueMap adProperties = toCamelCase(properties, AD_FORMATTER);
+    PlaybackSession session = session(properties, nielsenOptions);
+    flushPendingStop(event, session);
 
     switch (event) {
-      case "Video Ad Started":
+      case EventTable.AD_STARTED:
         // In case of ad `type` preroll, call `loadMetadata` with metadata values for content,
         // followed by `loadMetadata` with ad (preroll) metadata
         if ("pre-roll".equals(properties.getString("type"))) {
           if (properties.containsKey("content") && !properties.getValueMap("content").isEmpty()) {
             ValueMap contentMap = properties.getValueMap("content");
-            ValueMap contentProperties = toCamelCase(contentMap, CONTENT_FORMATTER);
-            JSONObject adContentAsset = buildContentMetadata(contentProperties, nielsenOptions);
-            appSdk.loadMetadata(adContentAsset);
-            logger.verbose("appSdk.loadMetadata(%s)", adContentAsset);
+            ValueMap contentProperties = toCamelCase(contentMap, MappingPlan.CONTENT_FORMATTER);
+            JSONObject adContentAsset =
+                contentMetadata(session, contentProperties, nielsenOptions);
+            loadMetadata(event, session, adContentAsset, true);
           }
         }
-        JSONObject adAsset = buildAdMetadata(adProperties);
-        appSdk.loadMetadata(adAsset);
-        logger.verbose("appSdk.loadMetadata(%s)", adAsset);
-        startPlayheadTimer(adProperties, appSdk);
+        ValueMap adProperties = toCamelCase(properties, MappingPlan.AD_FORMATTER);
+        JSONObject adAsset = adMetadata(session, adProperties);
+        loadMetadata(event, session, adAsset, false);
+        startPlayheadTimer(session, properties);
         break;
 
-      case "Video Ad Playing":
-        startPlayheadTimer(adProperties, appSdk);
+      case EventTable.AD_PLAYING:
+        startPlayheadTimer(session, properties);
         break;
 
-      case "Video Ad Completed":
-        stopPlayheadTimer();
-        appSdk.stop();
-        logger.verbose("appSdk.stop");
+      case EventTable.AD_COMPLETED:
+        stopPlayheadTimer(session);
+        stop(event, session);
         break;
     }
   }
 
   @Override
   public void track(TrackPayload track) {
-    String event = track.event();
-    Properties properties = track.properties();
+    long start = System.nanoTime();
+    int event = plan.events.lookup(track.event());
+    try {
+      track(event, track);
+    } finally {
+      metrics.recordEvent(event, System.nanoTime() - start);
+    }
+  }
 
+  /**
+   * Handles track and screen calls that were queued, for example while the app was offline, in
+   * the order given. Pauses, seeks and rebuffers that a later event in the same session already
+   * undid are skipped, as worked out by {@link BatchPlanner}, so the AppSdk is left in the same
+   * state as if each event had been tracked on its own, with fewer calls. Content metadata is
+   * built once per distinct content and not loaded again while it is current. Other calls are
+   * ignored.
+   */
+  public void trackBatch(@NonNull List<? extends BasePayload> payloads) {
+    int size = payloads.size();
+    int[] events = new int[size];
+    String[] sessionIds = new String[size];
+    boolean[] pinned = new boolean[size];
+    Set<String> created = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      BasePayload payload = payloads.get(i);
+      if (!(payload instanceof TrackPayload)) {
+        events[i] = payload instanceof ScreenPayload ? Metrics.SCREEN : EventTable.UNKNOWN;
+        continue;
+      }
+      TrackPayload track = (TrackPayload) payload;
+      events[i] = plan.events.lookup(track.event());
+      if (events[i] == EventTable.UNKNOWN) {
+        continue;
+      }
+      String sessionId = sessionId(track.properties());
+      sessionIds[i] = sessionId;
+      // keep the events that pick the session's appid or change how it plays in the background
+      pinned[i] =
+          nielsenOptions(track).containsKey("backgroundAudio")
+              || (appSdks != null && !sessions.containsKey(sessionId) && created.add(sessionId));
+    }
+
+    boolean[] superseded =
+        BatchPlanner.superseded(events, sessionIds, pinned, plan.coalesceWindowMillis > 0);
+    int skipped = 0;
+    for (int i = 0; i < size; i++) {
+      BasePayload payload = payloads.get(i);
+      if (superseded[i]) {
+        skipped++;
+      } else if (payload instanceof TrackPayload) {
+        long start = System.nanoTime();
+        try {
+          track(events[i], (TrackPayload) payload);
+        } finally {
+          metrics.recordEvent(events[i], System.nanoTime() - start);
+        }
+      } else if (payload instanceof ScreenPayload) {
+        screen((ScreenPayload) payload);
+      }
+    }
+    metrics.supersededEvents.addAndGet(skipped);
+    if (skipped > 0 && verbose) {
+      logger.verbose("Skipped %s superseded event(s) of a batch of %s.", skipped, size);
+    }
+  }
+
+  private static Map<String, Object> nielsenOptions(TrackPayload track) {
     Map<String, Object> nielsenOptions = track.integrations().getValueMap("nielsen-dcr");
     if (isNullOrEmpty(nielsenOptions)) {
-      nielsenOptions = Collections.emptyMap();
+      return Collections.emptyMap();
     }
+    return nielsenOptions;
+  }
 
-    switch (event) {
-      case "Video Playback Started":
-      case "Video Playback Paused":
-      case "Video Playback Interrupted":
-      case "Video Playback Seek Started":
-      case "Video Playback Seek Completed":
-      case "Video Playback Buffer Started":
-      case "Video Playback Buffer Completed":
-      case "Video Playback Resumed":
-      case "Video Playback Exited":
-      case "Video Playback Completed":
+  private void track(int event, TrackPayload track) {
+    if (event == EventTable.UNKNOWN) {
+      return;
+    }
+    Properties properties = track.properties();
+    Map<String, Object> nielsenOptions = nielsenOptions(track);
+
+    switch (EventTable.family(event)) {
+      case EventTable.FAMILY_PLAYBACK:
         try {
-          trackVideoPlayback(track, properties, nielsenOptions);
+          trackVideoPlayback(event, properties, nielsenOptions);
         } catch (JSONException e) {
           logger.verbose("Error tracking Video Playback:", e);
         }
         break;
-      case "Video Content Started":
-      case "Video Content Playing":
-      case "Video Content Completed":
+      case EventTable.FAMILY_CONTENT:
         try {
-          trackVideoContent(track, properties, nielsenOptions);
+          trackVideoContent(event, properties, nielsenOptions);
         } catch (JSONException e) {
           logger.verbose("Error tracking Video Content:", e);
         }
         break;
-      case "Video Ad Started":
-      case "Video Ad Playing":
-      case "Video Ad Completed":
+      case EventTable.FAMILY_AD:
         try {
-          trackVideoAd(track, properties, nielsenOptions);
+          trackVideoAd(event, properties, nielsenOptions);
         } catch (JSONException e) {
           logger.verbose("Error tracking Video Ad:", e);
         }
@@ -592,10 +960,10 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
 
   private String fetchSectionProperty(Properties properties, String defaultValue) {
     String sectionProperty = "";
-    String customKey = settings.customSectionProperty;
-    String customSectionNameFromProps = properties.getString(customKey);
+    String customKey = plan.customSectionKey;
+    String customSectionNameFromProps = customKey != null ? properties.getString(customKey) : null;
 
-    if (!Utils.isNullOrEmpty(customKey) && !Utils.isNullOrEmpty(customSectionNameFromProps)) {
+    if (!Utils.isNullOrEmpty(customSectionNameFromProps)) {
       sectionProperty = customSectionNameFromProps;
     } else if (!Utils.isNullOrEmpty(defaultValue)) {
       sectionProperty = defaultValue;
@@ -606,61 +974,81 @@ public class NielsenDCRIntegration extends Integration<AppSdk> {
   }
 
   private String fetchContentAssetId(@NonNull ValueMap properties) {
-    String contentAssetId;
-    if (settings.contentAssetIdPropertyName != null) {
-      contentAssetId = properties.getString(settings.contentAssetIdPropertyName);
-    } else if (properties.getString("assetId") != null) {
-      contentAssetId = properties.getString("assetId");
-    } else {
-      contentAssetId = properties.getString("contentAssetId");
+    String[] keys = plan.contentAssetIdKeys;
+    for (int i = 0; i < keys.length; i++) {
+      String contentAssetId = properties.getString(keys[i]);
+      if (contentAssetId != null) {
+        return contentAssetId;
+      }
     }
-    return contentAssetId;
+    return null;
   }
 
   @Override
   public void screen(ScreenPayload screen) {
+    long start = System.nanoTime();
+    try {
+      trackScreen(screen);
+    } finally {
+      metrics.recordEvent(Metrics.SCREEN, System.nanoTime() - start);
+    }
+  }
+
+  private void trackScreen(ScreenPayload screen) {
     String name = fetchSectionProperty(screen.properties(), screen.name());
     String contentAssetId = fetchContentAssetId(screen.properties());
 
-    JSONObject metadata = new JSONObject();
-
     Map<String, Object> nielsenOptions = screen.integrations().getValueMap("nielsen-dcr");
     if (isNullOrEmpty(nielsenOptions)) {
       nielsenOptions = Collections.emptyMap();
     }
 
-    try {
-      metadata.put("section", name);
-      metadata.put("type", "static");
-      metadata.put("assetid", contentAssetId);
-
-      // segB and segC are required values, so will send a default value
-      if (nielsenOptions.containsKey("segB")) {
-        String segB = String.valueOf(nielsenOptions.get("segB"));
-        metadata.put("segB", segB);
-      } else {
-        metadata.put("segB", "");
-      }
-
-      if (nielsenOptions.containsKey("segC")) {
-        String segC = String.valueOf(nielsenOptions.get("segC"));
-        metadata.put("segC", segC);
-      } else {
-        metadata.put("segC", "");
-      }
+    // segB and segC are required values, so will send a default value
+    String segB = "";
+    if (nielsenOptions.containsKey("segB")) {
+      segB = String.valueOf(nielsenOptions.get("segB"));
+    }
+    String segC = "";
+    if (nielsenOptions.containsKey("segC")) {
+      segC = String.valueOf(nielsenOptions.get("segC"));
+    }
+    String crossId1 = null;
+    if (nielsenOptions.containsKey("crossId1")) {
+      crossId1 = String.valueOf(nielsenOptions.get("crossId1"));
+    }
 
-      if (nielsenOptions.containsKey("crossId1")) {
-        String crossId1 = String.valueOf(nielsenOptions.get("crossId1"));
-        metadata.put("crossId1", crossId1);
+    // built here rather than when a debounced load comes due, which is on the playhead thread
+    JSONObject metadata = null;
+    synchronized (screenMetadata) {
+      screenMetadata
+          .clear()
+          .set(MetadataBuilder.SECTION, name)
+          .set(MetadataBuilder.TYPE, "static")
+          .set(MetadataBuilder.ASSETID, contentAssetId)
+          .set(MetadataBuilder.SEGB, segB)
+          .set(MetadataBuilder.SEGC, segC)
+          .set(MetadataBuilder.CROSSID1, crossId1);
+      try {
+        metadata = screenMetadata.build();
+      } catch (JSONException e) {
+        e.printStackTrace();
+        logger.verbose("Error tracking Video Content:", e);
       }
-
-    } catch (JSONException e) {
-      e.printStackTrace();
-      logger.verbose("Error tracking Video Content:", e);
+    }
+    if (metadata == null) {
+      return;
     }
 
-    appSdk.loadMetadata(metadata);
-    logger.verbose("appSdk.loadMetadata(%s)", metadata);
+    AppSdk screenAppSdk =
+        appSdks == null ? appSdk : appSdks.get(appId(screen.properties(), nielsenOptions));
+    ScreenDebouncer.Screen loaded =
+        new ScreenDebouncer.Screen(screenAppSdk, name, contentAssetId, segB, segC, metadata);
+    long debounceMillis = plan.screenDebounceMillis;
+    if (debounceMillis > 0) {
+      screens.submit(loaded, debounceMillis);
+    } else {
+      loadScreenMetadata(screenAppSdk, metadata);
+    }
   }
 
   @Override
@@ -3,6 +3,10 @@ package com.segment.analytics.android.integrations.nielsendcr;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.ProcessLifecycleOwner;
 
 import com.nielsen.app.sdk.AppSdk;
 import com.nielsen.app.sdk.IAppNotifier;
@@ -14,6 +18,13 @@ import com.segment.analytics.integrations.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 class NielsenDCRIntegrationFactory implements Integration.Factory {
 
   interface AppSDKFactory {
@@ -31,8 +42,21 @@ class NielsenDCRIntegrationFactory implements Integration.Factory {
   private static final String NIELSEN_DCR_KEY = "Nielsen DCR";
   // "sfcode" used to be a UI setting, but should now be hard-coded to "dcr" per Nielsen support
   private static final String SF_CODE = "dcr";
+  private static final int MIN_JOURNAL_SIZE_BYTES = 4096;
+  private static final int DEFAULT_STARTUP_BUFFER_SIZE = 256;
+  private static final long DEFAULT_APP_SDK_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
 
   private final AppSDKFactory appSDKFactory;
+  // the integration created last, kept so settings refreshes can be applied to it in place
+  private NielsenDCRIntegration current;
+  // what create() handed Segment last: current, or the placeholder standing in while it is built
+  private Integration<AppSdk> published;
+  private WeakReference<Analytics> currentAnalytics;
+  private String currentAppSdkConfig;
+  // the AppSdk call queue of the integration created last, shut down when it is replaced
+  private QueuedSdkDispatcher currentSdkQueue;
+  // registered on the process lifecycle the first time it is needed
+  private AppLifecycleObserver lifecycleObserver;
 
   static NielsenDCRIntegrationFactory create() {
     return new NielsenDCRIntegrationFactory(AppSDKFactory.REAL);
@@ -43,14 +67,73 @@ class NielsenDCRIntegrationFactory implements Integration.Factory {
   }
 
   @Override
-  public Integration<AppSdk> create(ValueMap settings, Analytics analytics) {
-    Context context = analytics.getApplication();
-    Context appContext = context.getApplicationContext();
+  public Integration<AppSdk> create(final ValueMap settings, final Analytics analytics) {
+    final long start = System.nanoTime();
+    final Logger logger = analytics.logger(NIELSEN_DCR_KEY);
+    NielsenDCRIntegration reloaded = reload(settings, analytics);
+    if (reloaded != null) {
+      logger.verbose("Applied new settings without rebuilding AppSdk.");
+      return publish(reloaded);
+    }
+
+    final Metrics metrics = new Metrics();
+    if (settings.getBoolean("asyncStartup", false)) {
+      // hand Segment a placeholder right away and build the AppSdk off the init path
+      int capacity = settings.getInt("startupBufferSize", DEFAULT_STARTUP_BUFFER_SIZE);
+      DeferredIntegration deferred = new DeferredIntegration(capacity, start, metrics, logger);
+      deferred.start(
+          new Callable<Integration<AppSdk>>() {
+            @Override
+            public Integration<AppSdk> call() {
+              return create(settings, analytics, logger, metrics);
+            }
+          });
+      return publish(deferred);
+    }
+
+    NielsenDCRIntegration integration = create(settings, analytics, logger, metrics);
+    metrics.timeToReadyNanos.set(System.nanoTime() - start);
+    return publish(integration);
+  }
+
+  private synchronized Integration<AppSdk> publish(Integration<AppSdk> integration) {
+    published = integration;
+    return integration;
+  }
+
+  /**
+   * Returns a copy of the metrics of the integration handed to Segment last, or null if there is
+   * none. While `asyncStartup` is building the integration, these are the startup counters.
+   */
+  synchronized MetricsSnapshot metrics() {
+    if (published instanceof DeferredIntegration) {
+      return ((DeferredIntegration) published).metrics();
+    } else if (published instanceof NielsenDCRIntegration) {
+      return ((NielsenDCRIntegration) published).metrics();
+    }
+    return null;
+  }
+
+  /**
+   * Returns the AppSdk calls traced by the integration handed to Segment last, or an empty string
+   * if there is none yet or tracing is off.
+   */
+  synchronized String dumpTrace() {
+    if (published instanceof DeferredIntegration) {
+      return ((DeferredIntegration) published).dumpTrace();
+    } else if (published instanceof NielsenDCRIntegration) {
+      return ((NielsenDCRIntegration) published).dumpTrace();
+    }
+    return "";
+  }
 
-    Logger logger = analytics.logger(NIELSEN_DCR_KEY);
+  private NielsenDCRIntegration create(
+      final ValueMap settings, Analytics analytics, final Logger logger, Metrics metrics) {
+    Context context = analytics.getApplication();
+    final Context appContext = context.getApplicationContext();
 
-    String appname;
-    String appversion;
+    final String appname;
+    final String appversion;
     try {
       PackageManager packageManager = appContext.getPackageManager();
       PackageInfo packageInfo = packageManager.getPackageInfo(appContext.getPackageName(), 0);
@@ -64,57 +147,220 @@ class NielsenDCRIntegrationFactory implements Integration.Factory {
     String appId = settings.getString("appId");
 
     try {
-      // Prepare AppSdk configuration object (JSONObject)
-      JSONObject appSdkConfig =
-          new JSONObject()
-              .put("appid", appId)
-              .put("appname", appname)
-              .put("appversion", appversion)
-              .put("sfcode", SF_CODE);
-
-      if (settings.getBoolean("nolDevDebug", false)) {
-        appSdkConfig.put("nol_devDebug", "DEBUG");
-      }
+      AppSdk appSdk = createAppSdk(appContext, appId, appname, appversion, settings, logger);
 
-      AppSdk appSdk = appSDKFactory.create(appContext, appSdkConfig, null);
-      logger.verbose("new AppSdk(%s),", appSdkConfig.toString(2));
-
-      // Settings
-      NielsenDCRIntegration.Settings integrationSettings = new NielsenDCRIntegration.Settings();
-      String contentAssetIdPropertyName = settings.getString("contentAssetIdPropertyName");
-      if (contentAssetIdPropertyName != null && !contentAssetIdPropertyName.isEmpty()) {
-        integrationSettings.contentAssetIdPropertyName = contentAssetIdPropertyName;
-      }
-      String adAssetIdPropertyName = settings.getString("adAssetIdPropertyName");
-      if (adAssetIdPropertyName != null && !adAssetIdPropertyName.isEmpty()) {
-        integrationSettings.adAssetIdPropertyName = adAssetIdPropertyName;
+      // AppSdk calls are made inline unless a queue is configured
+      SdkDispatcher sdkDispatcher = new MeasuredSdkDispatcher(metrics);
+      QueuedSdkDispatcher sdkQueue = null;
+      int sdkQueueCapacity = settings.getInt("sdkQueueCapacity", 0);
+      if (sdkQueueCapacity > 0) {
+        int overflow = QueuedSdkDispatcher.overflowPolicy(settings.getString("sdkQueueOverflow"));
+        sdkQueue = new QueuedSdkDispatcher(sdkQueueCapacity, overflow, sdkDispatcher, logger);
+        metrics.sdkQueue = sdkQueue;
+        sdkDispatcher = sdkQueue;
       }
-      String clientIdPropertyName = settings.getString("clientIdPropertyName");
-      if (clientIdPropertyName != null && !clientIdPropertyName.isEmpty()) {
-        integrationSettings.clientIdPropertyName = clientIdPropertyName;
-      }
-      String subbrandPropertyName = settings.getString("subbrandPropertyName");
-      if (subbrandPropertyName != null && !subbrandPropertyName.isEmpty()) {
-        integrationSettings.subbrandPropertyName = subbrandPropertyName;
-      }
-      String contentLengthPropertyName = settings.getString("contentLengthPropertyName");
-      if (contentLengthPropertyName != null && !contentLengthPropertyName.isEmpty()) {
-        integrationSettings.contentLengthPropertyName = contentLengthPropertyName;
+
+      // events for other appids get AppSdk instances of their own, created when first needed
+      AppSdkPool appSdks = null;
+      int appSdkPoolSize = settings.getInt("appSdkPoolSize", 0);
+      if (appSdkPoolSize > 0) {
+        long idleTimeoutMillis =
+            settings.getLong("appSdkIdleTimeoutMillis", DEFAULT_APP_SDK_IDLE_TIMEOUT_MILLIS);
+        appSdks =
+            new AppSdkPool(
+                appId,
+                appSdk,
+                appSdkPoolSize,
+                idleTimeoutMillis,
+                new AppSdkPool.Creator() {
+                  @Override
+                  public AppSdk create(String appId) {
+                    try {
+                      return createAppSdk(
+                          appContext, appId, appname, appversion, settings, logger);
+                    } catch (JSONException e) {
+                      logger.error(e, "Could not create AppSdk for %s.", appId);
+                      return null;
+                    }
+                  }
+                },
+                logger);
       }
-      String customSectionProperty = settings.getString("customSectionProperty");
-      if (customSectionProperty != null && !customSectionProperty.isEmpty()) {
-        integrationSettings.customSectionProperty = customSectionProperty;
+
+      // close the sessions a killed process left open before any new ones start
+      SessionJournal journal = null;
+      int journalSizeBytes = settings.getInt("journalSizeBytes", 0);
+      if (journalSizeBytes > 0) {
+        File file = new File(appContext.getFilesDir(), SessionJournal.FILE_NAME);
+        try {
+          journal =
+              SessionJournal.open(
+                  file, Math.max(MIN_JOURNAL_SIZE_BYTES, journalSizeBytes), logger);
+          int closed = journal.reconcile(appSdk, appSdks, sdkDispatcher);
+          logger.verbose("Closed %s session(s) left open by the previous process.", closed);
+        } catch (IOException e) {
+          logger.error(e, "Could not open journal %s.", file);
+        }
       }
-      Boolean sendCurrentTimeLivestream = settings.getBoolean("sendCurrentTimeLivestream", false);
-      integrationSettings.sendCurrentTimeLivestream = sendCurrentTimeLivestream;
 
-      return new NielsenDCRIntegration(appSdk, integrationSettings, logger);
+      MappingPlan plan = MappingPlan.compile(integrationSettings(settings));
+      NielsenDCRIntegration integration =
+          new NielsenDCRIntegration(
+              appSdk,
+              plan,
+              logger,
+              PlayheadScheduler.shared(),
+              sdkDispatcher,
+              metrics,
+              journal,
+              appSdks);
+      remember(integration, sdkQueue, settings, analytics);
+      // apps that play audio in the background keep ticking there
+      observeLifecycle(settings.getBoolean("backgroundAudio", false) ? null : integration);
+      return integration;
     } catch (JSONException e) {
       logger.error(e, "Could not initialize settings.");
       return null;
     }
   }
 
+  private AppSdk createAppSdk(
+      Context appContext,
+      String appId,
+      String appname,
+      String appversion,
+      ValueMap settings,
+      Logger logger)
+      throws JSONException {
+    // Prepare AppSdk configuration object (JSONObject)
+    JSONObject appSdkConfig =
+        new JSONObject()
+            .put("appid", appId)
+            .put("appname", appname)
+            .put("appversion", appversion)
+            .put("sfcode", SF_CODE);
+
+    if (settings.getBoolean("nolDevDebug", false)) {
+      appSdkConfig.put("nol_devDebug", "DEBUG");
+    }
+
+    AppSdk appSdk = appSDKFactory.create(appContext, appSdkConfig, null);
+    if (logger.logLevel == Analytics.LogLevel.VERBOSE) {
+      logger.verbose("new AppSdk(%s),", appSdkConfig.toString(2));
+    }
+    return appSdk;
+  }
+
+  /** Reads the settings that control how events are mapped to Nielsen calls. */
+  private static NielsenDCRIntegration.Settings integrationSettings(ValueMap settings) {
+    NielsenDCRIntegration.Settings integrationSettings = new NielsenDCRIntegration.Settings();
+    String contentAssetIdPropertyName = settings.getString("contentAssetIdPropertyName");
+    if (contentAssetIdPropertyName != null && !contentAssetIdPropertyName.isEmpty()) {
+      integrationSettings.contentAssetIdPropertyName = contentAssetIdPropertyName;
+    }
+    String adAssetIdPropertyName = settings.getString("adAssetIdPropertyName");
+    if (adAssetIdPropertyName != null && !adAssetIdPropertyName.isEmpty()) {
+      integrationSettings.adAssetIdPropertyName = adAssetIdPropertyName;
+    }
+    String clientIdPropertyName = settings.getString("clientIdPropertyName");
+    if (clientIdPropertyName != null && !clientIdPropertyName.isEmpty()) {
+      integrationSettings.clientIdPropertyName = clientIdPropertyName;
+    }
+    String subbrandPropertyName = settings.getString("subbrandPropertyName");
+    if (subbrandPropertyName != null && !subbrandPropertyName.isEmpty()) {
+      integrationSettings.subbrandPropertyName = subbrandPropertyName;
+    }
+    String contentLengthPropertyName = settings.getString("contentLengthPropertyName");
+    if (contentLengthPropertyName != null && !contentLengthPropertyName.isEmpty()) {
+      integrationSettings.contentLengthPropertyName = contentLengthPropertyName;
+    }
+    String customSectionProperty = settings.getString("customSectionProperty");
+    if (customSectionProperty != null && !customSectionProperty.isEmpty()) {
+      integrationSettings.customSectionProperty = customSectionProperty;
+    }
+    String appIdPropertyName = settings.getString("appIdPropertyName");
+    if (appIdPropertyName != null && !appIdPropertyName.isEmpty()) {
+      integrationSettings.appIdPropertyName = appIdPropertyName;
+    }
+    Boolean sendCurrentTimeLivestream = settings.getBoolean("sendCurrentTimeLivestream", false);
+    integrationSettings.sendCurrentTimeLivestream = sendCurrentTimeLivestream;
+    integrationSettings.coalesceWindowMillis = settings.getLong("coalesceWindowMillis", 0);
+    integrationSettings.screenDebounceMillis = settings.getLong("screenDebounceMillis", 0);
+    integrationSettings.suppressRedundantCalls =
+        settings.getBoolean("suppressRedundantCalls", false);
+    integrationSettings.traceBufferSize = settings.getInt("traceBufferSize", 0);
+    ValueMap eventAliases = settings.getValueMap("eventAliases");
+    if (eventAliases != null && !eventAliases.isEmpty()) {
+      Map<String, String> aliases = new LinkedHashMap<>();
+      for (String alias : eventAliases.keySet()) {
+        aliases.put(alias, eventAliases.getString(alias));
+      }
+      integrationSettings.eventAliases = aliases;
+    }
+    return integrationSettings;
+  }
+
+  /**
+   * Applies {@code settings} in place when they are for the same Analytics instance and the same
+   * AppSdk configuration as the integration created last, so that a settings refresh that only
+   * changes mapping does not construct another AppSdk or interrupt playback in progress.
+   *
+   * <p>Settings that configure the dispatcher, journal, trace buffer, AppSdk pool and background
+   * audio only take effect when the AppSdk is rebuilt.
+   *
+   * @return the updated integration, or null if a new one has to be created
+   */
+  private synchronized NielsenDCRIntegration reload(ValueMap settings, Analytics analytics) {
+    if (current == null
+        || currentAnalytics.get() != analytics
+        || !currentAppSdkConfig.equals(appSdkConfig(settings))) {
+      return null;
+    }
+    current.reload(MappingPlan.compile(integrationSettings(settings)));
+    return current;
+  }
+
+  private synchronized void remember(
+      NielsenDCRIntegration integration,
+      QueuedSdkDispatcher sdkQueue,
+      ValueMap settings,
+      Analytics analytics) {
+    if (currentSdkQueue != null) {
+      // the replaced integration gets no more events; let its worker finish what it has queued
+      currentSdkQueue.shutdown();
+    }
+    current = integration;
+    currentSdkQueue = sdkQueue;
+    currentAnalytics = new WeakReference<>(analytics);
+    currentAppSdkConfig = appSdkConfig(settings);
+  }
+
+  /** Makes the process lifecycle suspend and resume the playheads of {@code integration}. */
+  private synchronized void observeLifecycle(NielsenDCRIntegration integration) {
+    if (lifecycleObserver == null) {
+      if (integration == null) {
+        return;
+      }
+      final AppLifecycleObserver observer = new AppLifecycleObserver();
+      // lifecycle observers can only be added on the main thread
+      new Handler(Looper.getMainLooper())
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  ProcessLifecycleOwner.get().getLifecycle().addObserver(observer);
+                }
+              });
+      lifecycleObserver = observer;
+    }
+    lifecycleObserver.attach(integration);
+  }
+
+  /** The settings that go into the AppSdk itself; a change to any of them needs a new AppSdk. */
+  private static String appSdkConfig(ValueMap settings) {
+    return settings.getString("appId") + '/' + settings.getBoolean("nolDevDebug", false);
+  }
+
   @Override
   public String key() {
     return NIELSEN_DCR_KEY;
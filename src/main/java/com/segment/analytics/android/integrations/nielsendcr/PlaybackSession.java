@@ -0,0 +1,292 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playhead state for a single video session, identified by the video spec {@code session_id}. Each
+ * concurrent player (main content, picture-in-picture, muted previews) gets its own session so
+ * starting or stopping one never touches the playhead of another.
+ *
+ * <p>What the AppSdk has been told is kept in the {@link AppSdkState} of the AppSdk the session is
+ * bound to, which other sessions and screens share. The session's lock guards the playhead and its
+ * scheduled tasks.
+ */
+class PlaybackSession {
+
+  private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long NOT_REPORTED = Long.MIN_VALUE;
+
+  final String id;
+  final AppSdk appSdk;
+  final SdkDispatcher sdk;
+  private final PlayheadScheduler scheduler;
+  private final Metrics metrics;
+  final AppSdkState appSdkState;
+  // filled again for every event of the session, under their own locks
+  final MetadataBuilder contentMetadata = new MetadataBuilder(MetadataBuilder.CONTENT);
+  final MetadataBuilder adMetadata = new MetadataBuilder(MetadataBuilder.AD);
+  final MetadataBuilder channelInfo = new MetadataBuilder(MetadataBuilder.CHANNEL);
+  private ScheduledFuture<?> playheadTimer;
+  private ScheduledFuture<?> pendingStop;
+  // bumped whenever the playhead is started or stopped, so a tick that lost the race with a
+  // cancel can tell it is stale
+  private int generation;
+  // the playhead is anchorPosition at anchorNanos and advances one second per elapsed second
+  private long anchorPosition;
+  private long anchorNanos;
+  private long lastReported = NOT_REPORTED;
+  // when the next tick should run, to measure how late it actually does
+  private long nextTickNanos;
+  // set while the app is in the background: the playhead is frozen at suspendedPosition and no
+  // ticks are scheduled, but the session still counts as playing
+  private boolean suspended;
+  private long suspendedPosition;
+  // the player keeps going in the background, e.g. audio, so the playhead is never suspended
+  private volatile boolean backgroundPlayback;
+  // when the integration last handled an event for the session
+  private volatile long lastEventNanos;
+
+  PlaybackSession(
+      String id, AppSdk appSdk, SdkDispatcher sdk, PlayheadScheduler scheduler, Metrics metrics) {
+    this(id, appSdk, new AppSdkState(), sdk, scheduler, metrics);
+  }
+
+  /** @param appSdkState the state of {@code appSdk}, shared with whatever else calls it */
+  PlaybackSession(
+      String id,
+      AppSdk appSdk,
+      AppSdkState appSdkState,
+      SdkDispatcher sdk,
+      PlayheadScheduler scheduler,
+      Metrics metrics) {
+    this.id = id;
+    this.appSdk = appSdk;
+    this.appSdkState = appSdkState;
+    this.sdk = sdk;
+    this.scheduler = scheduler;
+    this.metrics = metrics;
+    this.lastEventNanos = scheduler.nanoTime();
+  }
+
+  /**
+   * Starts reporting the playhead from {@code position}: right away, and then on every whole second
+   * of playback after that. A suspended playhead is restarted from {@code position}.
+   *
+   * @return false if the playhead was already running
+   */
+  synchronized boolean startPlayhead(long position) {
+    if (playheadTimer != null && !suspended) {
+      return false;
+    }
+    generation++;
+    suspended = false;
+    anchor(position);
+    scheduleTick(anchorNanos, 0);
+    metrics.activeTimers.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Stops reporting the playhead.
+   *
+   * @return false if the playhead was not running
+   */
+  synchronized boolean stopPlayhead() {
+    if (playheadTimer == null) {
+      return false;
+    }
+    generation++;
+    scheduler.cancel(playheadTimer);
+    playheadTimer = null;
+    if (!suspended) {
+      metrics.activeTimers.decrementAndGet();
+    }
+    suspended = false;
+    return true;
+  }
+
+  /**
+   * Stops ticking while the app is in the background, remembering where the playhead got to. Only
+   * the scheduled tick is cancelled; the metadata and the AppSdk are left alone.
+   *
+   * @return false if the playhead was not running, is already suspended, or plays in the background
+   */
+  synchronized boolean suspend() {
+    if (playheadTimer == null || suspended || backgroundPlayback) {
+      return false;
+    }
+    generation++;
+    scheduler.cancel(playheadTimer);
+    suspendedPosition = positionAt(scheduler.nanoTime());
+    suspended = true;
+    metrics.activeTimers.decrementAndGet();
+    return true;
+  }
+
+  /**
+   * Starts ticking again from the position the playhead was suspended at.
+   *
+   * @return false if the playhead was not suspended
+   */
+  synchronized boolean resume() {
+    if (!suspended) {
+      return false;
+    }
+    suspended = false;
+    generation++;
+    anchor(suspendedPosition);
+    scheduleTick(anchorNanos, 0);
+    metrics.activeTimers.incrementAndGet();
+    return true;
+  }
+
+  synchronized boolean isSuspended() {
+    return suspended;
+  }
+
+  void setBackgroundPlayback(boolean backgroundPlayback) {
+    this.backgroundPlayback = backgroundPlayback;
+  }
+
+  /** The playhead at {@code nanos}, a {@link PlayheadScheduler#nanoTime()} reading. */
+  synchronized long positionAt(long nanos) {
+    return anchorPosition + (nanos - anchorNanos) / TICK_NANOS;
+  }
+
+  /** Milliseconds from {@code nanos} to the next whole second of playback, rounded up. */
+  synchronized long nextTickDelayMillis(long nanos) {
+    long nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+    return (untilNextTick(nanos) + nanosPerMilli - 1) / nanosPerMilli;
+  }
+
+  private long untilNextTick(long nanos) {
+    return TICK_NANOS - (nanos - anchorNanos) % TICK_NANOS;
+  }
+
+  /**
+   * Holds back a stop for up to {@code windowMillis}. Ticks are suspended meanwhile; if playback
+   * resumes within the window the stop is dropped, otherwise {@code flush} is run when the window
+   * closes to send it.
+   *
+   * @return false if the playhead is not running, in which case there is nothing to hold back
+   */
+  synchronized boolean deferStop(long windowMillis, Runnable flush) {
+    if (playheadTimer == null) {
+      return false;
+    }
+    if (pendingStop != null) {
+      return true;
+    }
+    pendingStop = scheduler.delay(flush, windowMillis);
+    return true;
+  }
+
+  /**
+   * Drops a deferred stop because playback resumed within the window, moving the playhead to
+   * {@code position}. A suspended playhead stays suspended and picks up from {@code position} once
+   * the app is back in the foreground.
+   *
+   * @return false if there was no deferred stop to drop
+   */
+  synchronized boolean resumePendingStop(long position) {
+    if (pendingStop == null) {
+      return false;
+    }
+    scheduler.cancel(pendingStop);
+    pendingStop = null;
+    if (suspended) {
+      suspendedPosition = position;
+      return true;
+    }
+    // report from the resumed position right away, on a new whole-second cadence
+    generation++;
+    scheduler.cancel(playheadTimer);
+    anchor(position);
+    scheduleTick(anchorNanos, 0);
+    return true;
+  }
+
+  /**
+   * Takes over a deferred stop so the caller can send it now: the window is cancelled and the
+   * playhead stopped. Callers hold the session's lock until the stop has been sent, so a resume
+   * racing with it either drops the stop or comes after it.
+   *
+   * @return false if there was no deferred stop to take
+   */
+  synchronized boolean takePendingStop() {
+    if (pendingStop == null) {
+      return false;
+    }
+    scheduler.cancel(pendingStop);
+    pendingStop = null;
+    stopPlayhead();
+    return true;
+  }
+
+  synchronized boolean isStopPending() {
+    return pendingStop != null;
+  }
+
+  synchronized boolean isPlaying() {
+    return playheadTimer != null;
+  }
+
+  void touch(long nanos) {
+    lastEventNanos = nanos;
+  }
+
+  /**
+   * Whether the player seems to have left the session without exiting it: there has been no
+   * event for {@code timeoutNanos}, and the session is neither playing nor about to stop.
+   */
+  synchronized boolean isAbandoned(long nanos, long timeoutNanos) {
+    return nanos - lastEventNanos >= timeoutNanos && playheadTimer == null && pendingStop == null;
+  }
+
+  /**
+   * Reports the playhead and schedules the next tick for the next whole second of playback. A tick
+   * that runs late reports the position playback has actually reached, skipping the seconds it
+   * missed rather than catching up on them, and a position is never reported twice in a row.
+   */
+  synchronized void tick(int scheduledGeneration) {
+    if (scheduledGeneration != generation) {
+      // stopped or restarted after this tick was scheduled
+      return;
+    }
+    long now = scheduler.nanoTime();
+    metrics.tickJitter.record(now - nextTickNanos);
+    if (pendingStop == null) {
+      // otherwise waiting to see whether a stop is coalesced
+      long position = positionAt(now);
+      if (position != lastReported) {
+        appSdkState.advance(SdkDispatcher.SET_PLAYHEAD_POSITION);
+        sdk.setPlayheadPosition(appSdk, position);
+        lastReported = position;
+      }
+    }
+    scheduleTick(now + untilNextTick(now), nextTickDelayMillis(now));
+  }
+
+  private void anchor(long position) {
+    anchorPosition = position;
+    anchorNanos = scheduler.nanoTime();
+    lastReported = NOT_REPORTED;
+  }
+
+  private void scheduleTick(long dueNanos, long delayMillis) {
+    final int scheduledGeneration = generation;
+    nextTickNanos = dueNanos;
+    playheadTimer =
+        scheduler.delay(
+            new Runnable() {
+              @Override
+              public void run() {
+                tick(scheduledGeneration);
+              }
+            },
+            delayMillis);
+  }
+}
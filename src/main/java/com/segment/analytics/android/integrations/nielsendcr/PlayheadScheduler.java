@@ -0,0 +1,85 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import android.os.Build;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs playhead ticks, and the few delayed tasks sessions need, for every playback on a single,
+ * lazily created daemon thread. The thread is shared by all integration instances in the process,
+ * so starting and stopping playback only schedules and cancels tasks instead of creating a new
+ * {@link java.util.Timer} thread each time.
+ */
+class PlayheadScheduler {
+  private static final String THREAD_NAME = "Segment-NielsenDCR-Playhead";
+
+  private static PlayheadScheduler shared;
+
+  private final ThreadFactory threadFactory;
+  private ScheduledThreadPoolExecutor executor;
+  // whether the executor drops cancelled tasks from its queue by itself
+  private boolean removesOnCancel;
+
+  /** Returns the process-wide scheduler, creating it on first use. */
+  static synchronized PlayheadScheduler shared() {
+    if (shared == null) {
+      shared = new PlayheadScheduler(new DaemonThreadFactory());
+    }
+    return shared;
+  }
+
+  PlayheadScheduler(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  /** Runs {@code task} once after {@code delayMillis}. */
+  ScheduledFuture<?> delay(Runnable task, long delayMillis) {
+    return executor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Cancels a task previously returned by {@link #delay}. */
+  void cancel(ScheduledFuture<?> task) {
+    ScheduledThreadPoolExecutor executor = executor();
+    task.cancel(false);
+    if (!removesOnCancel) {
+      // before API 21 cancelled tasks stay queued until their delay runs out unless purged
+      executor.purge();
+    }
+  }
+
+  /**
+   * Monotonic clock the playhead is measured against. Unlike the wall clock it never jumps when the
+   * user or the network changes the time.
+   */
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /** Number of ticks and delayed tasks currently scheduled. */
+  int pendingTicks() {
+    return executor().getQueue().size();
+  }
+
+  private synchronized ScheduledThreadPoolExecutor executor() {
+    if (executor == null) {
+      executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        // cancelling a tick then removes just that task, instead of scanning the whole queue
+        executor.setRemoveOnCancelPolicy(true);
+        removesOnCancel = true;
+      }
+    }
+    return executor;
+  }
+
+  static class DaemonThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, THREAD_NAME);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.integrations.Logger;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves AppSdk calls off the calling thread. Calls are queued in a bounded FIFO queue and handed,
+ * in submission order, to the target dispatcher by a single worker thread, so the order of calls
+ * for every session is the order in which the integration issued them. What happens when the
+ * queue is full is decided by the overflow policy, except that playhead positions are never waited
+ * for: they are reported from the shared playhead thread, and the next tick reports a newer one.
+ */
+class QueuedSdkDispatcher implements SdkDispatcher {
+  /** Wait for the worker to make room, or until the dispatcher is shut down. */
+  static final int OVERFLOW_BLOCK = 0;
+  /** Discard the oldest queued call to make room. */
+  static final int OVERFLOW_DROP_OLDEST = 1;
+  /** Discard the call being submitted. */
+  static final int OVERFLOW_DROP_NEWEST = 2;
+
+  // how often a caller waiting for room checks whether the dispatcher has been shut down
+  private static final long SHUTDOWN_CHECK_MILLIS = 100;
+
+  // queued by shutdown() to wake the worker
+  private static final Command SHUTDOWN = new Command(-1, null, null, 0);
+
+  private final BlockingQueue<Command> queue;
+  private final int overflow;
+  private final SdkDispatcher target;
+  private final Logger logger;
+  private final Thread worker;
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong executed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private volatile boolean shutdown;
+
+  /** @param target makes the calls on the worker thread */
+  QueuedSdkDispatcher(int capacity, int overflow, SdkDispatcher target, Logger logger) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.overflow = overflow;
+    this.target = target;
+    this.logger = logger;
+    this.worker =
+        new Thread("Segment-NielsenDCR-AppSdk") {
+          @Override
+          public void run() {
+            drain();
+          }
+        };
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /** Parses the `sdkQueueOverflow` setting, defaulting to {@link #OVERFLOW_BLOCK}. */
+  static int overflowPolicy(String name) {
+    if ("dropOldest".equals(name)) {
+      return OVERFLOW_DROP_OLDEST;
+    } else if ("dropNewest".equals(name)) {
+      return OVERFLOW_DROP_NEWEST;
+    }
+    return OVERFLOW_BLOCK;
+  }
+
+  @Override
+  public void loadMetadata(AppSdk appSdk, JSONObject metadata) {
+    submit(new Command(LOAD_METADATA, appSdk, metadata, 0), true);
+  }
+
+  @Override
+  public void play(AppSdk appSdk, JSONObject channelInfo) {
+    submit(new Command(PLAY, appSdk, channelInfo, 0), true);
+  }
+
+  @Override
+  public void stop(AppSdk appSdk) {
+    submit(new Command(STOP, appSdk, null, 0), true);
+  }
+
+  @Override
+  public void end(AppSdk appSdk) {
+    submit(new Command(END, appSdk, null, 0), true);
+  }
+
+  @Override
+  public void setPlayheadPosition(AppSdk appSdk, long position) {
+    submit(new Command(SET_PLAYHEAD_POSITION, appSdk, null, position), false);
+  }
+
+  /** Number of calls waiting for the worker. */
+  int depth() {
+    return queue.size();
+  }
+
+  /** Largest number of calls that have been waiting at once. */
+  int maxDepth() {
+    return maxDepth.get();
+  }
+
+  long submitted() {
+    return submitted.get();
+  }
+
+  long executed() {
+    return executed.get();
+  }
+
+  /** Calls discarded by the overflow policy. */
+  long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Stops the worker once the calls already queued have been made. Calls submitted afterwards, and
+   * calls still waiting for room, are dropped.
+   */
+  void shutdown() {
+    shutdown = true;
+    // wakes an idle worker; a busy one sees the flag once it has emptied the queue
+    queue.offer(SHUTDOWN);
+  }
+
+  /** @param mayWait whether the call may wait for room when the overflow policy says to block */
+  private void submit(Command command, boolean mayWait) {
+    submitted.incrementAndGet();
+    if (shutdown) {
+      dropped.incrementAndGet();
+      return;
+    }
+    switch (overflow == OVERFLOW_BLOCK && !mayWait ? OVERFLOW_DROP_NEWEST : overflow) {
+      case OVERFLOW_DROP_NEWEST:
+        if (!queue.offer(command)) {
+          dropped.incrementAndGet();
+        }
+        break;
+      case OVERFLOW_DROP_OLDEST:
+        while (!queue.offer(command)) {
+          if (queue.poll() != null) {
+            dropped.incrementAndGet();
+          }
+        }
+        break;
+      default:
+        if (!waitForRoom(command)) {
+          dropped.incrementAndGet();
+          return;
+        }
+        break;
+    }
+    updateMaxDepth(queue.size());
+  }
+
+  /** Queues {@code command} once there is room; false if shut down or interrupted first. */
+  private boolean waitForRoom(Command command) {
+    try {
+      while (!queue.offer(command, SHUTDOWN_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (shutdown) {
+          return false;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    // queued as the worker was finishing up; take it back unless the worker got to it
+    return !shutdown || !queue.remove(command);
+  }
+
+  private void updateMaxDepth(int depth) {
+    int max;
+    while (depth > (max = maxDepth.get())) {
+      if (maxDepth.compareAndSet(max, depth)) {
+        return;
+      }
+    }
+  }
+
+  private void drain() {
+    // the worker is never interrupted, so a shutdown cannot cut an AppSdk call short
+    while (!shutdown || !queue.isEmpty()) {
+      Command command;
+      try {
+        command = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (command != SHUTDOWN) {
+        execute(command);
+      }
+    }
+  }
+
+  private void execute(Command command) {
+    try {
+      switch (command.method) {
+        case LOAD_METADATA:
+          target.loadMetadata(command.appSdk, command.argument);
+          break;
+        case PLAY:
+          target.play(command.appSdk, command.argument);
+          break;
+        case STOP:
+          target.stop(command.appSdk);
+          break;
+        case END:
+          target.end(command.appSdk);
+          break;
+        case SET_PLAYHEAD_POSITION:
+          target.setPlayheadPosition(command.appSdk, command.position);
+          break;
+      }
+    } catch (RuntimeException e) {
+      logger.error(e, "AppSdk call failed.");
+    }
+    executed.incrementAndGet();
+  }
+
+  private static class Command {
+    final int method;
+    final AppSdk appSdk;
+    final JSONObject argument;
+    final long position;
+
+    Command(int method, AppSdk appSdk, JSONObject argument, long position) {
+      this.method = method;
+      this.appSdk = appSdk;
+      this.argument = argument;
+      this.position = position;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds screen loads back until navigation settles. A screen is loaded once no other screen has
+ * followed it for the debounce window; screens that are replaced within the window are never
+ * loaded, and a screen identical to the one loaded last is skipped if it comes within the window
+ * of that load. Both count as suppressed loads in {@link Metrics}.
+ *
+ * <p>Screens arrive with their metadata already built, so a load that comes due on the shared
+ * playhead thread only hands the metadata to the AppSdk's dispatcher.
+ */
+class ScreenDebouncer {
+  interface Loader {
+    void load(Screen screen);
+  }
+
+  private final PlayheadScheduler scheduler;
+  private final Metrics metrics;
+  private final Loader loader;
+  private Screen pending;
+  private ScheduledFuture<?> pendingLoad;
+  private Screen lastLoaded;
+  private long lastLoadedNanos;
+
+  ScreenDebouncer(PlayheadScheduler scheduler, Metrics metrics, Loader loader) {
+    this.scheduler = scheduler;
+    this.metrics = metrics;
+    this.loader = loader;
+  }
+
+  /** Loads {@code screen} once {@code windowMillis} pass without another screen. */
+  synchronized void submit(final Screen screen, long windowMillis) {
+    if (pendingLoad != null) {
+      scheduler.cancel(pendingLoad);
+      pendingLoad = null;
+      pending = null;
+      metrics.suppressedScreenLoads.incrementAndGet();
+    }
+    long now = scheduler.nanoTime();
+    if (screen.sameAs(lastLoaded)
+        && now - lastLoadedNanos < TimeUnit.MILLISECONDS.toNanos(windowMillis)) {
+      metrics.suppressedScreenLoads.incrementAndGet();
+      return;
+    }
+    pending = screen;
+    pendingLoad =
+        scheduler.delay(
+            new Runnable() {
+              @Override
+              public void run() {
+                settle(screen);
+              }
+            },
+            windowMillis);
+  }
+
+  /** Loads the pending screen right away, if there is one. */
+  void flush() {
+    Screen screen;
+    synchronized (this) {
+      screen = pending;
+      if (screen == null) {
+        return;
+      }
+      scheduler.cancel(pendingLoad);
+    }
+    settle(screen);
+  }
+
+  private void settle(Screen screen) {
+    synchronized (this) {
+      if (pending != screen) {
+        // replaced or flushed after the load was scheduled
+        return;
+      }
+      pending = null;
+      pendingLoad = null;
+      lastLoaded = screen;
+      lastLoadedNanos = scheduler.nanoTime();
+    }
+    // outside the lock, so a slow AppSdk does not hold up screens being submitted
+    loader.load(screen);
+  }
+
+  /** The values a screen is loaded with, the metadata built from them, and its AppSdk. */
+  static class Screen {
+    final AppSdk appSdk;
+    final String section;
+    final String assetId;
+    final String segB;
+    final String segC;
+    final JSONObject metadata;
+
+    Screen(
+        AppSdk appSdk,
+        String section,
+        String assetId,
+        String segB,
+        String segC,
+        JSONObject metadata) {
+      this.appSdk = appSdk;
+      this.section = section;
+      this.assetId = assetId;
+      this.segB = segB;
+      this.segC = segC;
+      this.metadata = metadata;
+    }
+
+    /** Whether the two screens would measure the same: crossId1 is not compared. */
+    boolean sameAs(Screen other) {
+      return other != null
+          && appSdk == other.appSdk
+          && equal(section, other.section)
+          && equal(assetId, other.assetId)
+          && equal(segB, other.segB)
+          && equal(segC, other.segC);
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.json.JSONObject;
+
+/** Every call the integration makes on an {@link AppSdk} goes through a dispatcher. */
+interface SdkDispatcher {
+  int LOAD_METADATA = 0;
+  int PLAY = 1;
+  int STOP = 2;
+  int END = 3;
+  int SET_PLAYHEAD_POSITION = 4;
+
+  /** AppSdk method names, indexed by the constants above. */
+  String[] METHOD_NAMES = {"loadMetadata", "play", "stop", "end", "setPlayheadPosition"};
+
+  void loadMetadata(AppSdk appSdk, JSONObject metadata);
+
+  void play(AppSdk appSdk, JSONObject channelInfo);
+
+  void stop(AppSdk appSdk);
+
+  void end(AppSdk appSdk);
+
+  void setPlayheadPosition(AppSdk appSdk, long position);
+
+  /** Calls the AppSdk on the calling thread. */
+  SdkDispatcher DIRECT =
+      new SdkDispatcher() {
+        @Override
+        public void loadMetadata(AppSdk appSdk, JSONObject metadata) {
+          appSdk.loadMetadata(metadata);
+        }
+
+        @Override
+        public void play(AppSdk appSdk, JSONObject channelInfo) {
+          appSdk.play(channelInfo);
+        }
+
+        @Override
+        public void stop(AppSdk appSdk) {
+          appSdk.stop();
+        }
+
+        @Override
+        public void end(AppSdk appSdk) {
+          appSdk.end();
+        }
+
+        @Override
+        public void setPlayheadPosition(AppSdk appSdk, long position) {
+          appSdk.setPlayheadPosition(position);
+        }
+      };
+}
@@ -0,0 +1,378 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.integrations.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the AppSdk calls made for each video session, kept in a fixed-size
+ * memory-mapped file. Writes are plain memory stores, and because the pages belong to the file
+ * they survive the process being killed (though not the device losing power). When the app starts
+ * again, sessions the journal shows as still playing are closed on the new AppSdk with {@link
+ * #reconcile}, so Nielsen is not left waiting for a stop or end that never came.
+ *
+ * <p>The file starts with {@link #MAGIC} and holds records of the form {@code type, session id
+ * length (short), session id (UTF-8), payload}. A record's type byte is written after the rest of
+ * the record, and the space after the last record is always zero, so a record cut short by the
+ * process dying is read as the end of the journal. When a record does not fit, the journal is
+ * compacted down to the latest metadata, position and state of each live session.
+ *
+ * <p>Sessions that ran on a pooled AppSdk start with the appid they reported to, so they are
+ * closed on an instance for that appid rather than on the default one.
+ */
+class SessionJournal {
+  static final int MAGIC = 0x4e44434a; // "NDCJ"
+  static final String FILE_NAME = "nielsen-dcr.journal";
+
+  private static final byte RECORD_END_OF_JOURNAL = 0;
+  private static final byte RECORD_METADATA = 1; // payload: length (int), JSON (UTF-8)
+  private static final byte RECORD_PLAY = 2;
+  private static final byte RECORD_POSITION = 3; // payload: position (long)
+  private static final byte RECORD_STOP = 4;
+  private static final byte RECORD_END = 5; // also written for sessions that are forgotten
+  private static final byte RECORD_APP_ID = 6; // payload: length (int), appid (UTF-8)
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final MappedByteBuffer buffer;
+  private final Logger logger;
+  // latest state of every session that has not ended, rebuilt from the file on open
+  private final Map<String, SessionState> sessions = new LinkedHashMap<>();
+
+  /**
+   * Maps {@code file}, creating or resizing it to {@code sizeBytes}, and reads back the sessions
+   * recorded by the previous process. A file that is not a journal is discarded.
+   */
+  static SessionJournal open(File file, int sizeBytes, Logger logger) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      if (raf.length() != sizeBytes) {
+        // a resized journal cannot be trusted to end in zeros, so start over
+        raf.setLength(0);
+        raf.setLength(sizeBytes);
+      }
+      MappedByteBuffer buffer =
+          raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+      return new SessionJournal(buffer, logger);
+    } finally {
+      // the mapping stays valid after the channel is closed
+      raf.close();
+    }
+  }
+
+  private SessionJournal(MappedByteBuffer buffer, Logger logger) {
+    this.buffer = buffer;
+    this.logger = logger;
+    if (buffer.getInt(0) == MAGIC) {
+      replay();
+    } else {
+      clear();
+    }
+  }
+
+  /** Returns a dispatcher that records each call for {@code sessionId} before passing it on. */
+  SdkDispatcher forSession(String sessionId, SdkDispatcher target) {
+    return forSession(sessionId, null, target);
+  }
+
+  /**
+   * Returns a dispatcher that records each call for {@code sessionId} before passing it on.
+   *
+   * @param appId the appid of the pooled AppSdk the session runs on, or null for the default one
+   */
+  SdkDispatcher forSession(
+      final String sessionId, final String appId, final SdkDispatcher target) {
+    return new SdkDispatcher() {
+      @Override
+      public void loadMetadata(AppSdk appSdk, JSONObject metadata) {
+        metadata(sessionId, appId, metadata.toString());
+        target.loadMetadata(appSdk, metadata);
+      }
+
+      @Override
+      public void play(AppSdk appSdk, JSONObject channelInfo) {
+        state(sessionId, appId, RECORD_PLAY);
+        target.play(appSdk, channelInfo);
+      }
+
+      @Override
+      public void stop(AppSdk appSdk) {
+        state(sessionId, appId, RECORD_STOP);
+        target.stop(appSdk);
+      }
+
+      @Override
+      public void end(AppSdk appSdk) {
+        state(sessionId, appId, RECORD_END);
+        target.end(appSdk);
+      }
+
+      @Override
+      public void setPlayheadPosition(AppSdk appSdk, long position) {
+        position(sessionId, appId, position);
+        target.setPlayheadPosition(appSdk, position);
+      }
+    };
+  }
+
+  /** Drops a session the integration is done with, whether or not it was ended. */
+  synchronized void forget(String sessionId) {
+    if (sessions.containsKey(sessionId)) {
+      state(sessionId, null, RECORD_END);
+    }
+  }
+
+  /** Closes the sessions the previous process left playing on the default AppSdk. */
+  int reconcile(AppSdk appSdk, SdkDispatcher sdk) {
+    return reconcile(appSdk, null, sdk);
+  }
+
+  /**
+   * Closes every session the previous process left playing: its last metadata is loaded, the
+   * playhead is moved to the last reported position and {@link AppSdk#end()} is called. Sessions
+   * that ran on a pooled AppSdk are closed on {@code appSdks}' instance for their appid, and are
+   * skipped when there is no pool. The journal is empty afterwards.
+   *
+   * @param appSdks the pool for sessions that ran on another appid, or null
+   * @return the number of sessions closed
+   */
+  synchronized int reconcile(AppSdk appSdk, AppSdkPool appSdks, SdkDispatcher sdk) {
+    int closed = 0;
+    for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+      SessionState session = entry.getValue();
+      if (!session.playing) {
+        continue;
+      }
+      AppSdk target = appSdk;
+      if (session.appId != null) {
+        if (appSdks == null) {
+          logger.verbose(
+              "Not closing session %s, there is no AppSdk for %s.", entry.getKey(), session.appId);
+          continue;
+        }
+        target = appSdks.get(session.appId);
+      }
+      if (session.metadata != null) {
+        try {
+          sdk.loadMetadata(target, new JSONObject(session.metadata));
+        } catch (JSONException e) {
+          logger.error(e, "Could not read journaled metadata for session %s.", entry.getKey());
+        }
+      }
+      if (session.position >= 0) {
+        sdk.setPlayheadPosition(target, session.position);
+      }
+      sdk.end(target);
+      closed++;
+    }
+    sessions.clear();
+    clear();
+    return closed;
+  }
+
+  /** Ids of the sessions the journal currently considers playing. */
+  synchronized Map<String, Long> playingSessions() {
+    Map<String, Long> playing = new LinkedHashMap<>();
+    for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+      if (entry.getValue().playing) {
+        playing.put(entry.getKey(), entry.getValue().position);
+      }
+    }
+    return playing;
+  }
+
+  /** Bytes used by the journal, including the header. */
+  synchronized int size() {
+    return buffer.position();
+  }
+
+  private synchronized void metadata(String sessionId, String appId, String json) {
+    session(sessionId, appId).metadata = json;
+    byte[] id = sessionId.getBytes(UTF_8);
+    append(RECORD_METADATA, id, json.getBytes(UTF_8), 0);
+  }
+
+  private synchronized void position(String sessionId, String appId, long position) {
+    session(sessionId, appId).position = position;
+    append(RECORD_POSITION, sessionId.getBytes(UTF_8), null, position);
+  }
+
+  private synchronized void state(String sessionId, String appId, byte type) {
+    if (type != RECORD_PLAY && !sessions.containsKey(sessionId)) {
+      // a session that is not playing has nothing to close, so there is nothing to record
+      return;
+    }
+    if (type == RECORD_END) {
+      sessions.remove(sessionId);
+    } else {
+      session(sessionId, appId).playing = type == RECORD_PLAY;
+    }
+    append(type, sessionId.getBytes(UTF_8), null, 0);
+  }
+
+  /** Returns the state of {@code sessionId}, recording its appid first if it is new. */
+  private SessionState session(String sessionId, String appId) {
+    SessionState session = sessions.get(sessionId);
+    if (session == null) {
+      session = new SessionState();
+      sessions.put(sessionId, session);
+      if (appId != null) {
+        session.appId = appId;
+        append(RECORD_APP_ID, sessionId.getBytes(UTF_8), appId.getBytes(UTF_8), 0);
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Appends a record, or compacts the journal if it does not fit; the in-memory state already
+   * reflects the record, so compaction writes its effect too. Records that do not fit even in an
+   * empty journal are left out.
+   */
+  private void append(byte type, byte[] id, byte[] payload, long position) {
+    if (fits(type, id, payload)) {
+      write(type, id, payload, position);
+    } else {
+      compact();
+    }
+  }
+
+  private static int recordLength(byte type, byte[] id, byte[] payload) {
+    int length = 1 + 2 + id.length;
+    if (type == RECORD_METADATA || type == RECORD_APP_ID) {
+      length += 4 + payload.length;
+    } else if (type == RECORD_POSITION) {
+      length += 8;
+    }
+    return length;
+  }
+
+  private void write(byte type, byte[] id, byte[] payload, long position) {
+    int start = buffer.position();
+    buffer.position(start + 1);
+    buffer.putShort((short) id.length);
+    buffer.put(id);
+    if (type == RECORD_METADATA || type == RECORD_APP_ID) {
+      buffer.putInt(payload.length);
+      buffer.put(payload);
+    } else if (type == RECORD_POSITION) {
+      buffer.putLong(position);
+    }
+    // publish the record only once it is complete
+    buffer.put(start, type);
+  }
+
+  /** Rewrites the journal as the minimal set of records that reproduces the in-memory state. */
+  private void compact() {
+    clear();
+    for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+      byte[] id = entry.getKey().getBytes(UTF_8);
+      SessionState session = entry.getValue();
+      if (session.appId != null) {
+        byte[] payload = session.appId.getBytes(UTF_8);
+        if (fits(RECORD_APP_ID, id, payload)) {
+          write(RECORD_APP_ID, id, payload, 0);
+        }
+      }
+      if (session.metadata != null) {
+        byte[] payload = session.metadata.getBytes(UTF_8);
+        if (fits(RECORD_METADATA, id, payload)) {
+          write(RECORD_METADATA, id, payload, 0);
+        }
+      }
+      if (session.position >= 0 && fits(RECORD_POSITION, id, null)) {
+        write(RECORD_POSITION, id, null, session.position);
+      }
+      byte state = session.playing ? RECORD_PLAY : RECORD_STOP;
+      if (fits(state, id, null)) {
+        write(state, id, null, 0);
+      }
+    }
+  }
+
+  private boolean fits(byte type, byte[] id, byte[] payload) {
+    return buffer.remaining() >= recordLength(type, id, payload) + 1;
+  }
+
+  /** Zeroes the file and leaves the buffer positioned after the header. */
+  private void clear() {
+    buffer.clear();
+    while (buffer.remaining() >= 8) {
+      buffer.putLong(0);
+    }
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+    buffer.putInt(0, MAGIC);
+    buffer.position(4);
+  }
+
+  private void replay() {
+    buffer.position(4);
+    try {
+      while (buffer.hasRemaining()) {
+        int start = buffer.position();
+        byte type = buffer.get();
+        if (type == RECORD_END_OF_JOURNAL) {
+          buffer.position(start);
+          break;
+        }
+        byte[] id = new byte[buffer.getShort()];
+        buffer.get(id);
+        String sessionId = new String(id, UTF_8);
+        switch (type) {
+          case RECORD_METADATA:
+            session(sessionId, null).metadata = new String(payload(), UTF_8);
+            break;
+          case RECORD_APP_ID:
+            session(sessionId, null).appId = new String(payload(), UTF_8);
+            break;
+          case RECORD_POSITION:
+            session(sessionId, null).position = buffer.getLong();
+            break;
+          case RECORD_PLAY:
+          case RECORD_STOP:
+            session(sessionId, null).playing = type == RECORD_PLAY;
+            break;
+          case RECORD_END:
+            sessions.remove(sessionId);
+            break;
+          default:
+            throw new IllegalStateException("Unknown journal record " + type);
+        }
+      }
+    } catch (BufferUnderflowException | IllegalStateException | NegativeArraySizeException e) {
+      logger.error(e, "Journal is corrupt, discarding it.");
+      sessions.clear();
+      clear();
+      return;
+    }
+    // rewrite what was read so the tail of a torn record cannot be mistaken for data later
+    compact();
+  }
+
+  private byte[] payload() {
+    byte[] payload = new byte[buffer.getInt()];
+    buffer.get(payload);
+    return payload;
+  }
+
+  private static class SessionState {
+    String appId;
+    String metadata;
+    long position = -1;
+    boolean playing;
+  }
+}
@@ -0,0 +1,102 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring buffer of the AppSdk calls the integration made, for debugging. Records are
+ * written into preallocated parallel arrays and claimed with a single atomic increment, so
+ * recording never locks or allocates; arguments are kept by reference and only turned into JSON
+ * text when the buffer is dumped. Once full, the oldest records are overwritten.
+ *
+ * <p>Dumping is best effort: a record that is being overwritten while it is read is left out.
+ */
+class TraceBuffer {
+  private final int mask;
+  private final AtomicLong next = new AtomicLong();
+  // sequence number + 1 of the record in each slot, 0 while the slot is being written
+  private final AtomicLongArray published;
+  private final long[] nanos;
+  private final int[] events;
+  private final int[] methods;
+  private final String[] sessions;
+  private final Object[] arguments;
+
+  /** @param capacity rounded up to a power of two */
+  TraceBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    mask = size - 1;
+    published = new AtomicLongArray(size);
+    nanos = new long[size];
+    events = new int[size];
+    methods = new int[size];
+    sessions = new String[size];
+    arguments = new Object[size];
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @param event the event code the call was made for, as recorded in {@link Metrics}
+   * @param method one of the method constants in {@link SdkDispatcher}
+   * @param session the session id, or null for screens
+   * @param argument the JSON handed to the AppSdk, or null; must not be modified afterwards
+   */
+  void record(int event, int method, String session, Object argument) {
+    long sequence = next.getAndIncrement();
+    int slot = (int) sequence & mask;
+    published.set(slot, 0);
+    nanos[slot] = System.nanoTime();
+    events[slot] = event;
+    methods[slot] = method;
+    sessions[slot] = session;
+    arguments[slot] = argument;
+    published.lazySet(slot, sequence + 1);
+  }
+
+  /** Number of records written since the buffer was created, including overwritten ones. */
+  long recorded() {
+    return next.get();
+  }
+
+  /** Formats the records still in the buffer, oldest first, one per line. */
+  String dump() {
+    long end = next.get();
+    long start = Math.max(0, end - capacity());
+    StringBuilder out = new StringBuilder();
+    long first = 0;
+    boolean any = false;
+    for (long sequence = start; sequence < end; sequence++) {
+      int slot = (int) sequence & mask;
+      if (published.get(slot) != sequence + 1) {
+        continue;
+      }
+      long time = nanos[slot];
+      int event = events[slot];
+      int method = methods[slot];
+      String session = sessions[slot];
+      Object argument = arguments[slot];
+      if (published.get(slot) != sequence + 1) {
+        continue;
+      }
+      if (!any) {
+        first = time;
+        any = true;
+      }
+      out.append(
+          String.format(
+              Locale.US,
+              "+%.3fms %s appSdk.%s(%s) session=%s%n",
+              (time - first) / (double) TimeUnit.MILLISECONDS.toNanos(1),
+              Metrics.eventName(event),
+              SdkDispatcher.METHOD_NAMES[method],
+              argument == null ? "" : argument,
+              session == null ? "-" : session));
+    }
+    return out.toString();
+  }
+}
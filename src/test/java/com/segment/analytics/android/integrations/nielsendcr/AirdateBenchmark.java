@@ -0,0 +1,54 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link NielsenDCRIntegration#formatAirdate} for every supported airdate format. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AirdateBenchmark {
+
+  @Param({
+    "2019-08-27",
+    "2019-08-27T17:00:00Z",
+    "2019-08-27T17:00:00.000Z",
+    "2019-08-27T17:00:00.123456+02:00",
+    "20190827 17:00:00",
+    "what"
+  })
+  public String airdate;
+
+  private NielsenDCRIntegration integration;
+
+  @Setup
+  public void setUp() {
+    integration =
+        new NielsenDCRIntegration(
+            NoOpAppSdk.create(),
+            new NielsenDCRIntegration.Settings(),
+            Logger.with(Analytics.LogLevel.NONE));
+  }
+
+  @Benchmark
+  public String formatAirdate() {
+    return integration.formatAirdate(airdate);
+  }
+}
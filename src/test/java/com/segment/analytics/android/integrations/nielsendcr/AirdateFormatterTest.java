@@ -0,0 +1,86 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AirdateFormatterTest {
+
+  @Test
+  public void shortDate() {
+    assertEquals("20190827 00:00:00", AirdateFormatter.formatIso("2019-08-27"));
+  }
+
+  @Test
+  public void longDate() {
+    assertEquals("20190827 17:00:00", AirdateFormatter.formatIso("2019-08-27T17:00:00Z"));
+    assertEquals("20190827 17:00:00", AirdateFormatter.formatIso("2019-08-27t17:00:00z"));
+    assertEquals("20190827 17:00:00", AirdateFormatter.formatIso("2019-08-27T17:00:00"));
+  }
+
+  @Test
+  public void fractionalSeconds() {
+    assertEquals("20190827 17:00:01", AirdateFormatter.formatIso("2019-08-27T17:00:01.000Z"));
+    assertEquals("20190827 17:00:01", AirdateFormatter.formatIso("2019-08-27T17:00:01.5Z"));
+    assertEquals("20190827 17:00:01", AirdateFormatter.formatIso("2019-08-27T17:00:01.123456Z"));
+  }
+
+  @Test
+  public void offsetsAreNormalisedToUtc() {
+    assertEquals("20190827 15:00:00", AirdateFormatter.formatIso("2019-08-27T17:00:00+02:00"));
+    assertEquals("20190827 15:30:00", AirdateFormatter.formatIso("2019-08-27T17:00:00.25+0130"));
+    assertEquals("20190828 00:00:00", AirdateFormatter.formatIso("2019-08-27T17:00:00-07"));
+    assertEquals("20200101 02:00:00", AirdateFormatter.formatIso("2019-12-31T21:00:00-05:00"));
+    assertEquals("20200229 23:00:00", AirdateFormatter.formatIso("2020-03-01T01:00:00+02:00"));
+  }
+
+  @Test
+  public void nonIsoDates() {
+    assertNull(AirdateFormatter.formatIso(null));
+    assertNull(AirdateFormatter.formatIso("what"));
+    assertNull(AirdateFormatter.formatIso("2019-08-27T17:00"));
+    assertNull(AirdateFormatter.formatIso("2019-08-27T17:00:00."));
+    assertNull(AirdateFormatter.formatIso("2019-08-27T17:00:00Zjunk"));
+    assertNull(AirdateFormatter.formatIso("2019-13-27"));
+    assertNull(AirdateFormatter.formatIso("2019/08/27"));
+  }
+
+  @Test
+  public void formatDate() {
+    assertEquals("20190827 17:00:00", AirdateFormatter.formatDate("20190827 17:00:00"));
+    assertNull(AirdateFormatter.formatDate("what"));
+  }
+
+  @Test
+  public void formatDateIsThreadSafe() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        final String date = String.format("201908%02d 17:00:%02d", i % 28 + 1, i % 60);
+        results.add(
+            executor.submit(
+                new Callable<String>() {
+                  @Override
+                  public String call() {
+                    return AirdateFormatter.formatDate(date);
+                  }
+                }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(
+            String.format("201908%02d 17:00:%02d", i % 28 + 1, i % 60), results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
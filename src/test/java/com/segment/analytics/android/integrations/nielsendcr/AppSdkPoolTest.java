@@ -0,0 +1,143 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class AppSdkPoolTest {
+
+  private AppSdk defaultAppSdk;
+  private Map<String, AppSdk> created;
+  private long now;
+  private AppSdkPool pool;
+
+  @Before
+  public void setUp() {
+    defaultAppSdk = mock(AppSdk.class);
+    created = new LinkedHashMap<>();
+    now = TimeUnit.DAYS.toNanos(1);
+    pool =
+        new AppSdkPool(
+            "default",
+            defaultAppSdk,
+            2,
+            1000,
+            new AppSdkPool.Creator() {
+              @Override
+              public AppSdk create(String appId) {
+                AppSdk appSdk = mock(AppSdk.class);
+                created.put(appId, appSdk);
+                return appSdk;
+              }
+            },
+            Logger.with(Analytics.LogLevel.NONE)) {
+          @Override
+          long nanoTime() {
+            return now;
+          }
+        };
+  }
+
+  @Test
+  public void defaultAppIdUsesDefaultInstance() {
+    assertSame(defaultAppSdk, pool.get(null));
+    assertSame(defaultAppSdk, pool.get(""));
+    assertSame(defaultAppSdk, pool.acquire("default"));
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void instancesAreCreatedOnceAndReused() {
+    AppSdk first = pool.acquire("a");
+    AppSdk second = pool.get("a");
+
+    assertSame(first, second);
+    assertSame(created.get("a"), first);
+    assertEquals(1, created.size());
+  }
+
+  @Test
+  public void idleInstanceIsClosedAfterTimeout() {
+    AppSdk a = pool.get("a");
+
+    advanceMillis(1000);
+    pool.get("b");
+
+    verify(a).close();
+    assertEquals(1, pool.size());
+  }
+
+  @Test
+  public void idleInstanceIsClosedByAnyCall() {
+    AppSdk a = pool.get("a");
+    AppSdk b = pool.acquire("b");
+
+    advanceMillis(1000);
+    pool.get("default");
+    verify(a).close();
+
+    pool.release(b);
+    advanceMillis(1000);
+    pool.release(defaultAppSdk);
+    verify(b).close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void heldInstanceIsNotClosed() {
+    AppSdk a = pool.acquire("a");
+
+    advanceMillis(5000);
+    pool.get("b");
+    pool.get("c");
+
+    verify(a, never()).close();
+    assertSame(a, pool.get("a"));
+
+    pool.release(a);
+    advanceMillis(1000);
+    pool.get("d");
+    verify(a).close();
+  }
+
+  @Test
+  public void leastRecentlyUsedIsClosedWhenFull() {
+    AppSdk a = pool.get("a");
+    AppSdk b = pool.get("b");
+    pool.get("a");
+
+    AppSdk c = pool.get("c");
+
+    verify(b).close();
+    verify(a, never()).close();
+    assertNotSame(b, c);
+    assertEquals(2, pool.size());
+  }
+
+  @Test
+  public void fullPoolFallsBackToDefault() {
+    pool.acquire("a");
+    pool.acquire("b");
+
+    assertSame(defaultAppSdk, pool.acquire("c"));
+    assertEquals(2, pool.size());
+  }
+
+  private void advanceMillis(long millis) {
+    now += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
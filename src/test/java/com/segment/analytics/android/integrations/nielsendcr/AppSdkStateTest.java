@@ -0,0 +1,57 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class AppSdkStateTest {
+
+  @Test
+  public void stateFollowsSdkCalls() {
+    AppSdkState state = new AppSdkState();
+    JSONObject content = new JSONObject();
+
+    assertEquals(AppSdkState.IDLE, state.state());
+    assertFalse(state.load(content, true));
+    assertEquals(AppSdkState.LOADED, state.advance(SdkDispatcher.PLAY));
+    assertEquals(AppSdkState.PLAYING, state.advance(SdkDispatcher.SET_PLAYHEAD_POSITION));
+    assertEquals(AppSdkState.PLAYING, state.advance(SdkDispatcher.STOP));
+    assertEquals(AppSdkState.STOPPED, state.advance(SdkDispatcher.STOP));
+    assertEquals(AppSdkState.STOPPED, state.advance(SdkDispatcher.END));
+    assertEquals(AppSdkState.ENDED, state.state());
+  }
+
+  @Test
+  public void onlyCurrentContentIsSkipped() {
+    AppSdkState state = new AppSdkState();
+    JSONObject content = new JSONObject();
+    JSONObject ad = new JSONObject();
+
+    assertFalse(state.load(content, true));
+    state.advance(SdkDispatcher.PLAY);
+    assertTrue(state.load(content, true));
+    assertEquals(AppSdkState.PLAYING, state.state());
+
+    // an ad replaces the content, which then has to be loaded again
+    assertFalse(state.load(ad, false));
+    assertEquals(AppSdkState.LOADED, state.state());
+    assertFalse(state.load(content, true));
+    state.advance(SdkDispatcher.END);
+    assertFalse(state.load(content, true));
+  }
+
+  @Test
+  public void repeatedCallsAreRedundant() {
+    assertTrue(AppSdkState.isRedundant(SdkDispatcher.PLAY, AppSdkState.PLAYING));
+    assertFalse(AppSdkState.isRedundant(SdkDispatcher.PLAY, AppSdkState.STOPPED));
+    assertTrue(AppSdkState.isRedundant(SdkDispatcher.STOP, AppSdkState.STOPPED));
+    assertTrue(AppSdkState.isRedundant(SdkDispatcher.STOP, AppSdkState.ENDED));
+    // ticks may have resumed measurement without a play
+    assertFalse(AppSdkState.isRedundant(SdkDispatcher.STOP, AppSdkState.LOADED));
+    assertTrue(AppSdkState.isRedundant(SdkDispatcher.END, AppSdkState.ENDED));
+    assertFalse(AppSdkState.isRedundant(SdkDispatcher.END, AppSdkState.PLAYING));
+  }
+}
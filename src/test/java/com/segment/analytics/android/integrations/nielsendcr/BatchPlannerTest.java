@@ -0,0 +1,268 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BatchPlannerTest {
+
+  private static final String[] EVENTS = {
+    "Video Playback Started",
+    "Video Playback Paused",
+    "Video Playback Interrupted",
+    "Video Playback Seek Started",
+    "Video Playback Seek Completed",
+    "Video Playback Buffer Started",
+    "Video Playback Buffer Completed",
+    "Video Playback Resumed",
+    "Video Playback Resumed",
+    "Video Playback Paused",
+    "Video Playback Exited",
+    "Video Playback Completed",
+    "Video Content Started",
+    "Video Content Playing",
+    "Video Content Completed",
+    "Video Ad Started",
+    "Video Ad Completed",
+  };
+
+  @Test
+  public void pausesUndoneByResumesAreSuperseded() {
+    int[] codes = {
+      EventTable.PLAYBACK_STARTED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_BUFFER_STARTED,
+      EventTable.PLAYBACK_BUFFER_COMPLETED,
+      EventTable.PLAYBACK_PAUSED
+    };
+    String[] sessions = {"a", "a", "a", "a", "a", "a"};
+
+    boolean[] superseded =
+        BatchPlanner.superseded(codes, sessions, new boolean[codes.length], false);
+
+    // the last play, the stop before it and the stop after it are kept
+    assertArrayEquals(new boolean[] {false, true, true, false, false, false}, superseded);
+  }
+
+  @Test
+  public void deferredStopsEndRuns() {
+    int[] codes = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_BUFFER_STARTED,
+      EventTable.PLAYBACK_BUFFER_COMPLETED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED
+    };
+    String[] sessions = {"a", "a", "a", "a", "a"};
+
+    assertArrayEquals(
+        new boolean[] {true, true, true, false, false},
+        BatchPlanner.superseded(codes, sessions, new boolean[5], false));
+    assertArrayEquals(
+        new boolean[] {false, false, false, false, false},
+        BatchPlanner.superseded(codes, sessions, new boolean[5], true));
+  }
+
+  @Test
+  public void runBeforeCompletionIsSuperseded() {
+    int[] codes = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.CONTENT_STARTED,
+      EventTable.PLAYBACK_COMPLETED
+    };
+    String[] sessions = {"a", "a", "a", "a"};
+    int[] ended = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_COMPLETED
+    };
+
+    assertArrayEquals(
+        new boolean[] {false, false, false, false},
+        BatchPlanner.superseded(codes, sessions, new boolean[4], false));
+    assertArrayEquals(
+        new boolean[] {true, true, true, false},
+        BatchPlanner.superseded(ended, sessions, new boolean[4], false));
+  }
+
+  @Test
+  public void sessionsAreCollapsedSeparately() {
+    int[] codes = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.UNKNOWN,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED
+    };
+    String[] sessions = {"a", "a", "a", "a", "a", null, "b", "b", "b", "b", "b"};
+    boolean[] pinned = new boolean[codes.length];
+    pinned[6] = true;
+
+    boolean[] superseded = BatchPlanner.superseded(codes, sessions, pinned, false);
+
+    // each session's first pause and resume are undone by its second pause, but b's is pinned
+    assertArrayEquals(
+        new boolean[] {true, true, false, false, false, false, false, true, false, false, false},
+        superseded);
+  }
+
+  @Test
+  public void interleavedSessionsEndRuns() {
+    int[] codes = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      Metrics.SCREEN,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED
+    };
+    String[] sessions = {"a", "a", "b", "a", null, "a", "a", "a"};
+
+    boolean[] superseded = BatchPlanner.superseded(codes, sessions, new boolean[8], false);
+
+    // b's pause and the screen may change what the AppSdk skips, so nothing is collapsed across
+    assertArrayEquals(
+        new boolean[] {false, false, false, false, false, false, false, false}, superseded);
+  }
+
+  @Test
+  public void exitKeepsTheRunBeforeIt() {
+    int[] codes = {
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_PAUSED,
+      EventTable.PLAYBACK_RESUMED,
+      EventTable.PLAYBACK_EXITED
+    };
+    String[] sessions = {"a", "a", "a", "a", "a"};
+
+    // the exit stops the AppSdk only if it is still playing, so the last resume is kept
+    assertArrayEquals(
+        new boolean[] {true, true, false, false, false},
+        BatchPlanner.superseded(codes, sessions, new boolean[5], false));
+  }
+
+  @Test
+  public void batchLeavesAppSdkAsTrackingEachEvent() {
+    NielsenDCRIntegration.Settings coalescing = new NielsenDCRIntegration.Settings();
+    coalescing.coalesceWindowMillis = 500;
+    NielsenDCRIntegration.Settings suppressing = new NielsenDCRIntegration.Settings();
+    suppressing.suppressRedundantCalls = true;
+    NielsenDCRIntegration.Settings both = new NielsenDCRIntegration.Settings();
+    both.coalesceWindowMillis = 500;
+    both.suppressRedundantCalls = true;
+    NielsenDCRIntegration.Settings[] variants = {
+      new NielsenDCRIntegration.Settings(), coalescing, suppressing, both
+    };
+
+    Random random = new Random(23);
+    long superseded = 0;
+    for (int trial = 0; trial < 500; trial++) {
+      List<BasePayload> batch = randomBatch(random);
+      NielsenDCRIntegration.Settings settings = variants[trial % variants.length];
+
+      Replay single = new Replay(settings);
+      for (BasePayload payload : batch) {
+        if (payload instanceof TrackPayload) {
+          single.integration.track((TrackPayload) payload);
+        } else {
+          single.integration.screen((ScreenPayload) payload);
+        }
+      }
+      Replay batched = new Replay(settings);
+      batched.integration.trackBatch(batch);
+
+      String message = "trial " + trial;
+      assertEquals(message, single.loads(), batched.loads());
+      assertEquals(message, single.sessionState("a"), batched.sessionState("a"));
+      assertEquals(message, single.sessionState("b"), batched.sessionState("b"));
+      assertTrue(message, batched.appSdk.size() <= single.appSdk.size());
+      superseded += batched.integration.metrics().supersededEvents();
+    }
+    assertTrue(superseded > 0);
+  }
+
+  private static List<BasePayload> randomBatch(Random random) {
+    List<BasePayload> batch = new ArrayList<>();
+    for (int i = 0, size = 10 + random.nextInt(30); i < size; i++) {
+      if (random.nextInt(20) == 0) {
+        batch.add(new ScreenPayload.Builder().anonymousId("a").name("Home").build());
+        continue;
+      }
+      Properties properties =
+          new Properties()
+              .putValue("session_id", random.nextBoolean() ? "a" : "b")
+              .putValue("position", random.nextInt(600))
+              .putValue("asset_id", "content-" + random.nextInt(2))
+              .putValue("title", "Some Show")
+              .putValue("type", "mid-roll");
+      batch.add(
+          new TrackPayload.Builder()
+              .anonymousId("a")
+              .event(EVENTS[random.nextInt(EVENTS.length)])
+              .properties(properties)
+              .build());
+    }
+    return batch;
+  }
+
+  private static class Replay {
+    final PlaybackSessionTest.ManualScheduler scheduler = new PlaybackSessionTest.ManualScheduler();
+    final RecordingAppSdk appSdk = RecordingAppSdk.create(1024);
+    final NielsenDCRIntegration integration;
+
+    Replay(NielsenDCRIntegration.Settings settings) {
+      integration =
+          new NielsenDCRIntegration(
+              appSdk, settings, Logger.with(Analytics.LogLevel.NONE), scheduler);
+    }
+
+    String loads() {
+      StringBuilder loads = new StringBuilder();
+      for (int i = 0; i < appSdk.size(); i++) {
+        if (appSdk.method(i) == SdkDispatcher.LOAD_METADATA) {
+          loads.append(appSdk.argument(i)).append('\n');
+        }
+      }
+      return loads.toString();
+    }
+
+    String sessionState(String sessionId) {
+      PlaybackSession session = integration.findSession(sessionId);
+      if (session == null) {
+        return "none";
+      }
+      return AppSdkState.STATE_NAMES[session.appSdkState.state()]
+          + " playing="
+          + session.isPlaying()
+          + " position="
+          + session.positionAt(scheduler.nanoTime())
+          + " stopPending="
+          + session.isStopPending();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures snake_case to camelCase normalisation of video properties as the number of custom
+ * properties on the event grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CamelCaseBenchmark {
+
+  @Param({"0", "16", "64", "256"})
+  public int customProperties;
+
+  private NielsenDCRIntegration integration;
+  private Properties properties;
+  private TrackPayload contentStarted;
+
+  @Setup
+  public void setUp() {
+    integration =
+        new NielsenDCRIntegration(
+            NoOpAppSdk.create(),
+            new NielsenDCRIntegration.Settings(),
+            Logger.with(Analytics.LogLevel.NONE));
+
+    properties =
+        new Properties()
+            .putValue("session_id", "session")
+            .putValue("asset_id", 123214)
+            .putValue("pod_id", "segment A")
+            .putValue("total_length", 1200)
+            .putValue("full_episode", true)
+            .putValue("load_type", "dynamic")
+            .putValue("title", "Look Who's Purging Now");
+    for (int i = 0; i < customProperties; i++) {
+      properties.putValue("custom_property_" + i, i);
+    }
+    contentStarted =
+        new TrackPayload.Builder()
+            .anonymousId("benchmark")
+            .event("Video Content Started")
+            .properties(properties)
+            .build();
+  }
+
+  @Benchmark
+  public Object contentToCamelCase() {
+    return integration.toCamelCase(properties, MappingPlan.CONTENT_FORMATTER);
+  }
+
+  @Benchmark
+  public Object adToCamelCase() {
+    return integration.toCamelCase(properties, MappingPlan.AD_FORMATTER);
+  }
+
+  /**
+   * Normalisation together with the reads the content mapper makes through the result, as a
+   * content start whose metadata is not cached yet. The cache is emptied before every call.
+   */
+  @Benchmark
+  public void contentMetadata() {
+    integration.contentMetadataCache.clear();
+    integration.track(contentStarted);
+  }
+}
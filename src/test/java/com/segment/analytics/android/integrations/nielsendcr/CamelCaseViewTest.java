@@ -0,0 +1,109 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.segment.analytics.Properties;
+import com.segment.analytics.ValueMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class CamelCaseViewTest {
+
+  @Test
+  public void readsCamelCaseFromSnakeCase() {
+    Properties properties =
+        new Properties().putValue("asset_id", 123).putValue("title", "Some Show");
+
+    ValueMap view = new ValueMap(new CamelCaseView(properties, CamelCaseView.CONTENT));
+
+    assertEquals(123, view.getInt("assetId", 0));
+    assertTrue(view.containsKey("assetId"));
+    assertNull(view.get("asset_id"));
+    assertFalse(view.containsKey("asset_id"));
+    assertEquals("Some Show", view.getString("title"));
+    assertEquals(2, view.size());
+  }
+
+  @Test
+  public void snakeCaseTakesPrecedence() {
+    Properties properties =
+        new Properties().putValue("asset_id", 1).putValue("assetId", 2).putValue("pod_id", null);
+
+    ValueMap view = new ValueMap(new CamelCaseView(properties, CamelCaseView.AD));
+
+    assertEquals(1, view.getInt("assetId", 0));
+    // a null snake_case value is not renamed
+    assertTrue(view.containsKey("pod_id"));
+    assertFalse(view.containsKey("podId"));
+  }
+
+  @Test
+  public void changesShowThrough() {
+    Properties properties = new Properties();
+    ValueMap view = new ValueMap(new CamelCaseView(properties, CamelCaseView.CONTENT));
+
+    properties.putValue("load_type", "dynamic");
+
+    assertEquals("dynamic", view.getString("loadType"));
+  }
+
+  @Test
+  public void matchesCopyWithRenamesApplied() {
+    String[][] formatters = {MappingPlan.CONTENT_FORMATTER, MappingPlan.AD_FORMATTER};
+    List<String> keys = new ArrayList<>();
+    for (String[] formatter : formatters) {
+      for (String key : formatter) {
+        keys.add(key);
+      }
+    }
+    keys.add("title");
+    keys.add("custom");
+
+    Random random = new Random(24);
+    for (int trial = 0; trial < 1000; trial++) {
+      String[] formatter = formatters[trial % formatters.length];
+      Map<String, Object> properties = new HashMap<>();
+      for (String key : keys) {
+        int pick = random.nextInt(3);
+        if (pick == 1) {
+          properties.put(key, null);
+        } else if (pick == 2) {
+          properties.put(key, key + trial);
+        }
+      }
+
+      Map<String, Object> copy = copyWithRenames(properties, formatter);
+      Map<String, Object> view =
+          new CamelCaseView(properties, CamelCaseView.Renames.of(formatter));
+
+      for (String key : keys) {
+        assertEquals(key, copy.get(key), view.get(key));
+        assertEquals(key, copy.containsKey(key), view.containsKey(key));
+      }
+      assertEquals(copy, view);
+    }
+  }
+
+  /** What toCamelCase() used to return. */
+  private static Map<String, Object> copyWithRenames(
+      Map<String, Object> properties, String[] formatter) {
+    Map<String, Object> copy = new HashMap<>(properties);
+    for (int i = 0; i < formatter.length; i += 2) {
+      Object value = copy.get(formatter[i]);
+      if (value != null) {
+        copy.put(formatter[i + 1], value);
+        copy.remove(formatter[i]);
+      }
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,157 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Integration;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DeferredIntegrationTest {
+
+  @Mock Integration<AppSdk> integration;
+  @Mock AppSdk nielsen;
+  private final Logger logger = Logger.with(Analytics.LogLevel.NONE);
+  private Metrics metrics;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    Mockito.when(integration.getUnderlyingInstance()).thenReturn(nielsen);
+    metrics = new Metrics();
+  }
+
+  @Test
+  public void callsAreReplayedInOrderOnceReady() {
+    DeferredIntegration deferred = new DeferredIntegration(8, System.nanoTime(), metrics, logger);
+    TrackPayload started = track("Video Playback Started");
+    ScreenPayload home = new ScreenPayload.Builder().anonymousId("foo").name("Home").build();
+    TrackPayload paused = track("Video Playback Paused");
+
+    deferred.track(started);
+    deferred.screen(home);
+    verifyZeroInteractions(integration);
+    assertNull(deferred.getUnderlyingInstance());
+
+    deferred.ready(integration);
+    deferred.track(paused);
+
+    InOrder order = inOrder(integration);
+    order.verify(integration).track(started);
+    order.verify(integration).screen(home);
+    order.verify(integration).track(paused);
+    assertSame(nielsen, deferred.getUnderlyingInstance());
+    assertEquals(2, metrics.startupBuffered.get());
+    assertTrue(metrics.timeToReadyNanos.get() > 0);
+  }
+
+  @Test
+  public void callsBeyondCapacityAreDropped() {
+    DeferredIntegration deferred = new DeferredIntegration(1, System.nanoTime(), metrics, logger);
+    TrackPayload started = track("Video Playback Started");
+
+    deferred.track(started);
+    deferred.track(track("Video Playback Paused"));
+    deferred.ready(integration);
+
+    verify(integration).track(started);
+    Mockito.verifyNoMoreInteractions(integration);
+    assertEquals(1, metrics.startupBuffered.get());
+    assertEquals(1, metrics.startupDropped.get());
+  }
+
+  @Test
+  public void metricsAreReadableBeforeAndAfterReady() {
+    DeferredIntegration deferred = new DeferredIntegration(1, System.nanoTime(), metrics, logger);
+    deferred.track(track("Video Playback Paused"));
+    deferred.track(track("Video Playback Paused"));
+
+    MetricsSnapshot starting = deferred.metrics();
+    assertEquals(1, starting.startupBufferedEvents());
+    assertEquals(1, starting.startupDroppedEvents());
+    assertEquals(0, starting.timeToReadyNanos());
+
+    NielsenDCRIntegration.Settings settings = new NielsenDCRIntegration.Settings();
+    settings.traceBufferSize = 4;
+    deferred.ready(
+        new NielsenDCRIntegration(
+            nielsen,
+            MappingPlan.compile(settings),
+            logger,
+            PlayheadScheduler.shared(),
+            new MeasuredSdkDispatcher(metrics),
+            metrics,
+            null,
+            null));
+
+    MetricsSnapshot ready = deferred.metrics();
+    assertEquals(1, ready.startupBufferedEvents());
+    assertTrue(ready.timeToReadyNanos() > 0);
+    assertEquals(1, ready.eventLatency().get("Video Playback Paused").count());
+    assertTrue(deferred.dumpTrace().contains("Video Playback Paused appSdk.stop()"));
+  }
+
+  @Test
+  public void callsAreDiscardedWhenStartupFails() {
+    DeferredIntegration deferred = new DeferredIntegration(8, System.nanoTime(), metrics, logger);
+    deferred.track(track("Video Playback Started"));
+
+    deferred.ready(null);
+    deferred.track(track("Video Playback Paused"));
+
+    assertNull(deferred.getUnderlyingInstance());
+    assertEquals(0, metrics.timeToReadyNanos.get());
+  }
+
+  @Test
+  public void integrationIsCreatedOnBackgroundThread() throws InterruptedException {
+    DeferredIntegration deferred = new DeferredIntegration(8, System.nanoTime(), metrics, logger);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread caller = Thread.currentThread();
+    final Thread[] creator = new Thread[1];
+    TrackPayload started = track("Video Playback Started");
+
+    deferred.start(
+        new Callable<Integration<AppSdk>>() {
+          @Override
+          public Integration<AppSdk> call() throws InterruptedException {
+            creator[0] = Thread.currentThread();
+            release.await();
+            return integration;
+          }
+        });
+    deferred.track(started);
+    release.countDown();
+
+    verify(integration, timeout(1000)).track(started);
+    assertTrue(creator[0] != caller);
+  }
+
+  private static TrackPayload track(String event) {
+    return new TrackPayload.Builder().anonymousId("foo").event(event).build();
+  }
+}
@@ -0,0 +1,56 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventTableTest {
+
+  @Test
+  public void specEvents() {
+    for (int code = 1; code < EventTable.SPEC_NAMES.length; code++) {
+      assertEquals(code, EventTable.SPEC.lookup(EventTable.SPEC_NAMES[code]));
+    }
+  }
+
+  @Test
+  public void unknownEvents() {
+    assertEquals(EventTable.UNKNOWN, EventTable.SPEC.lookup(null));
+    assertEquals(EventTable.UNKNOWN, EventTable.SPEC.lookup(""));
+    assertEquals(EventTable.UNKNOWN, EventTable.SPEC.lookup("Product Viewed"));
+    assertEquals(EventTable.UNKNOWN, EventTable.SPEC.lookup("video playback started"));
+    assertEquals(EventTable.UNKNOWN, EventTable.SPEC.lookup("Video Playback Startex"));
+    assertEquals(
+        EventTable.UNKNOWN,
+        EventTable.SPEC.lookup("An event name that is much longer than any video event name"));
+  }
+
+  @Test
+  public void families() {
+    assertEquals(EventTable.FAMILY_NONE, EventTable.family(EventTable.UNKNOWN));
+    assertEquals(EventTable.FAMILY_PLAYBACK, EventTable.family(EventTable.PLAYBACK_STARTED));
+    assertEquals(EventTable.FAMILY_PLAYBACK, EventTable.family(EventTable.PLAYBACK_COMPLETED));
+    assertEquals(EventTable.FAMILY_CONTENT, EventTable.family(EventTable.CONTENT_STARTED));
+    assertEquals(EventTable.FAMILY_CONTENT, EventTable.family(EventTable.CONTENT_COMPLETED));
+    assertEquals(EventTable.FAMILY_AD, EventTable.family(EventTable.AD_STARTED));
+    assertEquals(EventTable.FAMILY_AD, EventTable.family(EventTable.AD_COMPLETED));
+  }
+
+  @Test
+  public void aliases() {
+    Map<String, String> aliases = new LinkedHashMap<>();
+    aliases.put("Playback Started", "Video Playback Started");
+    aliases.put("Ad Break Finished", "Video Ad Completed");
+    aliases.put("Something Else", "Not A Video Event");
+
+    EventTable table = new EventTable(aliases);
+
+    assertEquals(EventTable.PLAYBACK_STARTED, table.lookup("Playback Started"));
+    assertEquals(EventTable.AD_COMPLETED, table.lookup("Ad Break Finished"));
+    assertEquals(EventTable.UNKNOWN, table.lookup("Something Else"));
+    assertEquals(EventTable.PLAYBACK_STARTED, table.lookup("Video Playback Started"));
+  }
+}
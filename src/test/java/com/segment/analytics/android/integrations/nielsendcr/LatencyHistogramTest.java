@@ -0,0 +1,56 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketsArePowersOfTwo() {
+    assertEquals(0, LatencyHistogram.bucket(0));
+    assertEquals(1, LatencyHistogram.bucket(1));
+    assertEquals(2, LatencyHistogram.bucket(2));
+    assertEquals(2, LatencyHistogram.bucket(3));
+    assertEquals(11, LatencyHistogram.bucket(1024));
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void snapshot() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(1000);
+    }
+    histogram.record(1000000);
+
+    MetricsSnapshot.Histogram snapshot = histogram.snapshot();
+
+    assertEquals(100, snapshot.count());
+    assertEquals(99 * 1000 + 1000000, snapshot.totalNanos());
+    assertEquals(1000000, snapshot.maxNanos());
+    assertEquals(10990, snapshot.meanNanos());
+    // 1000ns falls in [512, 1024)
+    assertEquals(1023, snapshot.percentileNanos(50));
+    assertEquals(1023, snapshot.percentileNanos(99));
+    assertEquals(1000000, snapshot.percentileNanos(100));
+  }
+
+  @Test
+  public void emptySnapshot() {
+    MetricsSnapshot.Histogram snapshot = new LatencyHistogram().snapshot();
+
+    assertEquals(0, snapshot.count());
+    assertEquals(0, snapshot.meanNanos());
+    assertEquals(0, snapshot.percentileNanos(99));
+  }
+
+  @Test
+  public void negativeDurationsAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+
+    assertEquals(0, histogram.snapshot().totalNanos());
+    assertEquals(1, histogram.snapshot().count());
+  }
+}
@@ -0,0 +1,55 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappingPlanTest {
+
+  @Test
+  public void defaults() {
+    MappingPlan plan = MappingPlan.compile(new NielsenDCRIntegration.Settings());
+
+    assertArrayEquals(new String[] {"assetId", "contentAssetId"}, plan.contentAssetIdKeys);
+    assertEquals("assetId", plan.adAssetIdKey);
+    assertEquals("clientId", plan.clientIdKey);
+    assertEquals("subbrand", plan.subbrandKey);
+    assertEquals("totalLength", plan.contentLengthKey);
+    assertNull(plan.customSectionKey);
+    assertFalse(plan.sendCurrentTimeLivestream);
+  }
+
+  @Test
+  public void customPropertyNames() {
+    NielsenDCRIntegration.Settings settings = new NielsenDCRIntegration.Settings();
+    settings.contentAssetIdPropertyName = "customContentAssetId";
+    settings.adAssetIdPropertyName = "customAdAssetId";
+    settings.clientIdPropertyName = "customClientId";
+    settings.subbrandPropertyName = "customSubbrand";
+    settings.contentLengthPropertyName = "customLength";
+    settings.customSectionProperty = "customSection";
+    settings.sendCurrentTimeLivestream = true;
+
+    MappingPlan plan = MappingPlan.compile(settings);
+
+    assertArrayEquals(new String[] {"customContentAssetId"}, plan.contentAssetIdKeys);
+    assertEquals("customAdAssetId", plan.adAssetIdKey);
+    assertEquals("customClientId", plan.clientIdKey);
+    assertEquals("customSubbrand", plan.subbrandKey);
+    assertEquals("customLength", plan.contentLengthKey);
+    assertEquals("customSection", plan.customSectionKey);
+    assertTrue(plan.sendCurrentTimeLivestream);
+  }
+
+  @Test
+  public void emptyCustomSectionIsIgnored() {
+    NielsenDCRIntegration.Settings settings = new NielsenDCRIntegration.Settings();
+    settings.customSectionProperty = "";
+
+    assertNull(MappingPlan.compile(settings).customSectionKey);
+  }
+}
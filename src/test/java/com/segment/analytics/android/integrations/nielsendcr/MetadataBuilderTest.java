@@ -0,0 +1,75 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class MetadataBuilderTest {
+
+  @Test
+  public void writesOnlySetSlots() throws JSONException {
+    MetadataBuilder builder = new MetadataBuilder(MetadataBuilder.SCREEN);
+
+    JSONObject metadata =
+        builder
+            .set(MetadataBuilder.SEGC, "c")
+            .set(MetadataBuilder.SECTION, "Home")
+            .set(MetadataBuilder.TYPE, "static")
+            .build();
+
+    assertEquals(3, metadata.length());
+    assertEquals("Home", metadata.getString("section"));
+    assertEquals("static", metadata.getString("type"));
+    assertEquals("c", metadata.getString("segC"));
+    assertFalse(metadata.has("crossId1"));
+  }
+
+  @Test
+  public void reusesObjectUntilSlotChanges() throws JSONException {
+    MetadataBuilder builder = new MetadataBuilder(MetadataBuilder.CHANNEL);
+    JSONObject first =
+        builder
+            .set(MetadataBuilder.CHANNEL_NAME, "news")
+            .set(MetadataBuilder.MEDIA_URL, "")
+            .build();
+
+    JSONObject same =
+        builder
+            .clear()
+            .set(MetadataBuilder.CHANNEL_NAME, new String("news"))
+            .set(MetadataBuilder.MEDIA_URL, "")
+            .build();
+    JSONObject changed = builder.clear().set(MetadataBuilder.CHANNEL_NAME, "news").build();
+
+    assertSame(first, same);
+    assertNotSame(first, changed);
+    assertFalse(changed.has("mediaURL"));
+    // the object handed out earlier is left as it was
+    assertEquals("", first.getString("mediaURL"));
+  }
+
+  @Test
+  public void layoutsCoverEverySlot() {
+    int[] slots = new int[MetadataBuilder.KEYS.length];
+    int[][] layouts = {
+      MetadataBuilder.CONTENT, MetadataBuilder.AD, MetadataBuilder.SCREEN, MetadataBuilder.CHANNEL
+    };
+    for (int[] layout : layouts) {
+      boolean[] seen = new boolean[MetadataBuilder.KEYS.length];
+      for (int slot : layout) {
+        assertFalse(MetadataBuilder.KEYS[slot], seen[slot]);
+        seen[slot] = true;
+        slots[slot]++;
+      }
+    }
+    for (int slot = 0; slot < slots.length; slot++) {
+      assertFalse(MetadataBuilder.KEYS[slot], slots[slot] == 0);
+      assertEquals(slot, MetadataBuilder.slot(MetadataBuilder.KEYS[slot]));
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MetadataCacheTest {
+
+  @Test
+  public void hitRequiresEqualInputs() {
+    MetadataCache cache = new MetadataCache(4);
+    JSONObject metadata = new JSONObject();
+    String key = MetadataCache.key("session", "asset");
+
+    cache.put(key, new Object[] {"title", 1200}, metadata);
+
+    assertSame(metadata, cache.get(key, new Object[] {"title", 1200}));
+    assertNull(cache.get(key, new Object[] {"other title", 1200}));
+    assertNull(cache.get(MetadataCache.key("other session", "asset"), new Object[] {"title", 1200}));
+    assertEquals(1, cache.hits());
+    assertEquals(2, cache.misses());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    MetadataCache cache = new MetadataCache(2);
+    Object[] inputs = {"title"};
+    cache.put("a", inputs, new JSONObject());
+    cache.put("b", inputs, new JSONObject());
+    cache.get("a", inputs);
+    cache.put("c", inputs, new JSONObject());
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b", inputs));
+    assertNotNull(cache.get("a", inputs));
+    assertNotNull(cache.get("c", inputs));
+  }
+
+  @Test
+  public void evictSession() {
+    MetadataCache cache = new MetadataCache(4);
+    Object[] inputs = {"title"};
+    cache.put(MetadataCache.key("one", "asset"), inputs, new JSONObject());
+    cache.put(MetadataCache.key("one", "other asset"), inputs, new JSONObject());
+    cache.put(MetadataCache.key("two", "asset"), inputs, new JSONObject());
+
+    cache.evictSession("one");
+
+    assertEquals(1, cache.size());
+  }
+}
@@ -11,6 +11,7 @@ import com.nielsen.app.sdk.IAppNotifier;
 import com.segment.analytics.Analytics;
 import com.segment.analytics.Properties;
 import com.segment.analytics.ValueMap;
+import com.segment.analytics.integrations.Integration;
 import com.segment.analytics.integrations.Logger;
 import com.segment.analytics.integrations.ScreenPayload;
 import com.segment.analytics.integrations.TrackPayload;
@@ -19,10 +20,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -31,16 +35,29 @@ import org.robolectric.annotation.Config;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Date;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.validateMockitoUsage;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -52,6 +69,7 @@ public class NielsenDCRTest {
   @Mock Application application;
   @Mock Context context;
   @Mock PackageManager packageManager;
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
   private Logger logger;
   private NielsenDCRIntegration integration;
   private NielsenDCRIntegrationFactory factory;
@@ -102,6 +120,225 @@ public class NielsenDCRTest {
     verify(appFactory).create(eq(context), jsonEq(expectedConfig), (IAppNotifier) isNull());
   }
 
+  @Test
+  public void sdkQueueSetting() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("sdkQueueCapacity", 8);
+    settings.put("sdkQueueOverflow", "dropOldest");
+
+    NielsenDCRIntegration queued = (NielsenDCRIntegration) factory.create(settings, analytics);
+    queued.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    verify(nielsen, Mockito.timeout(1000)).stop();
+    MetricsSnapshot metrics = queued.metrics();
+    assertEquals(1, metrics.queuedSdkCalls());
+    assertEquals(0, metrics.droppedSdkCalls());
+    assertTrue(metrics.sdkQueueMaxDepth() <= 1);
+  }
+
+  @Test
+  public void mappingSettingsAreReloadedInPlace() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    NielsenDCRIntegration first = (NielsenDCRIntegration) factory.create(settings, analytics);
+
+    settings.put("customSectionProperty", "customSection");
+    NielsenDCRIntegration second = (NielsenDCRIntegration) factory.create(settings, analytics);
+    second.screen(new ScreenPayload.Builder().anonymousId("foo") //
+        .name("Home")
+        .properties(new Properties().putValue("customSection", "mySection"))
+        .build());
+
+    assertSame(first, second);
+    verify(appFactory).create(eq(context), any(JSONObject.class), (IAppNotifier) isNull());
+    ArgumentCaptor<JSONObject> metadata = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen).loadMetadata(metadata.capture());
+    assertEquals("mySection", metadata.getValue().optString("section"));
+  }
+
+  @Test
+  public void appSdkSettingsRebuildIntegration() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    Integration<AppSdk> first = factory.create(settings, analytics);
+
+    settings.put("nolDevDebug", true);
+    Integration<AppSdk> second = factory.create(settings, analytics);
+    settings.put("appId", "67890");
+    Integration<AppSdk> third = factory.create(settings, analytics);
+
+    assertNotSame(first, second);
+    assertNotSame(second, third);
+    verify(appFactory, Mockito.times(3))
+        .create(eq(context), any(JSONObject.class), (IAppNotifier) isNull());
+  }
+
+  @Test
+  public void rebuildShutsDownReplacedSdkQueue() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("sdkQueueCapacity", 8);
+    NielsenDCRIntegration first = (NielsenDCRIntegration) factory.create(settings, analytics);
+
+    settings.put("nolDevDebug", true);
+    factory.create(settings, analytics);
+    first.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    // the replaced integration's queue no longer takes calls
+    verify(nielsen, never()).stop();
+    assertEquals(1, first.metrics().droppedSdkCalls());
+  }
+
+  @Test
+  public void appSdkPoolRoutesByAppId() {
+    AppSdk other = Mockito.mock(AppSdk.class);
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen, other);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("appSdkPoolSize", 2);
+    settings.put("appIdPropertyName", "brandAppId");
+    integration = (NielsenDCRIntegration) factory.create(settings, analytics);
+
+    trackVideo("Video Playback Paused",
+        new Properties().putValue("session_id", "a").putValue("brandAppId", "67890"));
+    trackVideo("Video Playback Paused",
+        new Properties().putValue("session_id", "b").putValue("brandAppId", "12345"));
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home")
+        .properties(new Properties().putValue("brandAppId", "67890"))
+        .build());
+
+    verify(other).stop();
+    verify(nielsen).stop();
+    verify(other).loadMetadata(any(JSONObject.class));
+    verify(nielsen, never()).loadMetadata(any(JSONObject.class));
+  }
+
+  @Test
+  public void recordingAppSdkThroughFactory() throws JSONException {
+    RecordingAppSdk.Factory recording = new RecordingAppSdk.Factory(16);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    factory = new NielsenDCRIntegrationFactory(recording);
+    integration = (NielsenDCRIntegration) factory.create(settings, analytics);
+
+    trackVideo("Video Playback Paused", new Properties().putValue("assetId", 1234));
+
+    RecordingAppSdk appSdk = recording.created().get(0);
+    assertEquals("12345", appSdk.config().getString("appid"));
+    assertEquals("stop()\n", appSdk.callSequence());
+  }
+
+  @Test
+  public void asyncStartupSetting() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("asyncStartup", true);
+
+    Integration<AppSdk> deferred = factory.create(settings, analytics);
+    deferred.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    assertTrue(deferred instanceof DeferredIntegration);
+    // readable while the AppSdk may still be being built
+    assertNotNull(factory.metrics());
+    verify(nielsen, Mockito.timeout(1000)).stop();
+  }
+
+  @Test
+  public void factoryReportsMetricsOfIntegrationHandedOut() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    assertNull(factory.metrics());
+
+    Integration<AppSdk> created = factory.create(settings, analytics);
+    created.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    MetricsSnapshot metrics = factory.metrics();
+    assertEquals(1, metrics.eventLatency().get("Video Playback Paused").count());
+    assertEquals(1, metrics.sdkCallLatency().get("stop").count());
+  }
+
+  @Test
+  public void journalClosesSessionsLeftOpen() throws IOException {
+    File filesDir = temporaryFolder.getRoot();
+    Mockito.when(context.getFilesDir()).thenReturn(filesDir);
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("journalSizeBytes", 8192);
+    SessionJournal journal =
+        SessionJournal.open(new File(filesDir, SessionJournal.FILE_NAME), 8192, logger);
+    journal.forSession("main", SdkDispatcher.DIRECT).play(Mockito.mock(AppSdk.class), null);
+
+    NielsenDCRIntegration integration =
+        (NielsenDCRIntegration) factory.create(settings, analytics);
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Started")
+        .properties(new Properties().putValue("session_id", "next").putValue("assetId", 1234))
+        .build());
+
+    verify(nielsen).end();
+    assertEquals(
+        Collections.singleton("next"),
+        SessionJournal.open(new File(filesDir, SessionJournal.FILE_NAME), 8192, logger)
+            .playingSessions()
+            .keySet());
+  }
+
+  @Test
+  public void journalIsEmptyAfterSessionsEnd() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), SessionJournal.FILE_NAME);
+    SessionJournal journal = SessionJournal.open(file, 8192, logger);
+    Metrics metrics = new Metrics();
+    integration =
+        new NielsenDCRIntegration(
+            nielsen,
+            MappingPlan.compile(settings),
+            logger,
+            PlayheadScheduler.shared(),
+            new MeasuredSdkDispatcher(metrics),
+            metrics,
+            journal,
+            null);
+
+    trackVideo("Video Playback Started", new Properties().putValue("session_id", "exited"));
+    trackVideo("Video Playback Exited", new Properties().putValue("session_id", "exited"));
+    trackVideo("Video Playback Started", new Properties().putValue("session_id", "completed"));
+    trackVideo("Video Playback Completed", new Properties().putValue("session_id", "completed"));
+
+    verify(nielsen).stop();
+    verify(nielsen).end();
+    assertTrue(journal.playingSessions().isEmpty());
+    // nothing but the header survives compaction
+    assertEquals(4, SessionJournal.open(file, 8192, logger).size());
+  }
+
   @Test
   public void videoPlaybackStarted() throws JSONException {
     integration.track(
@@ -287,6 +524,7 @@ public class NielsenDCRTest {
     settings.clientIdPropertyName = "customClientId";
     settings.subbrandPropertyName = "customSubbrand";
     settings.contentLengthPropertyName = "customLength";
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
 
     Map<String, Object> nielsenOptions = new LinkedHashMap<>();
     nielsenOptions.put("segB", "segmentB");
@@ -548,6 +786,7 @@ public class NielsenDCRTest {
   @Test
   public void videoAdStarted_settings() throws JSONException {
     settings.adAssetIdPropertyName = "customAdAssetId";
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
 
     integration.track(
             new TrackPayload.Builder().anonymousId("foo").event("Video Ad Started").properties(new Properties() //
@@ -658,6 +897,7 @@ public class NielsenDCRTest {
     settings.clientIdPropertyName = "customClientId";
     settings.subbrandPropertyName = "customSubbrand";
     settings.contentLengthPropertyName = "customLength";
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
 
     Map<String, Object> nielsenOptions = new LinkedHashMap<>();
     nielsenOptions.put("segB", "segmentB");
@@ -762,6 +1002,7 @@ public class NielsenDCRTest {
 
     settings.customSectionProperty = "customSection";
     settings.contentAssetIdPropertyName = "customContentAssetId";
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
 
     Map<String, Object> nielsenOptions = new LinkedHashMap<>();
     nielsenOptions.put("segB", "segmentB");
@@ -792,6 +1033,543 @@ public class NielsenDCRTest {
   }
 
 
+  @Test
+  public void concurrentSessionsKeepSeparatePlayheads() {
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Started")
+        .properties(new Properties() //
+            .putValue("session_id", "main")
+            .putValue("position", 10))
+        .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Started")
+        .properties(new Properties() //
+            .putValue("session_id", "pip")
+            .putValue("position", 20))
+        .build());
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties() //
+            .putValue("session_id", "pip"))
+        .build());
+
+    assertTrue(integration.findSession("main").isPlaying());
+    assertFalse(integration.findSession("pip").isPlaying());
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Completed")
+        .properties(new Properties() //
+            .putValue("session_id", "main"))
+        .build());
+
+    assertNull(integration.findSession("main"));
+    assertNotNull(integration.findSession("pip"));
+  }
+
+  @Test
+  public void abandonedSessionsAreDropped() {
+    PlaybackSessionTest.ManualScheduler scheduler = new PlaybackSessionTest.ManualScheduler();
+    integration = new NielsenDCRIntegration(nielsen, settings, logger, scheduler);
+    Properties paused = new Properties().putValue("session_id", "paused").putValue("position", 1);
+    Properties playing = new Properties().putValue("session_id", "playing");
+    trackVideo("Video Playback Started", paused);
+    trackVideo("Video Playback Paused", paused);
+    trackVideo("Video Playback Started", playing);
+
+    scheduler.now += NielsenDCRIntegration.ABANDONED_SESSION_NANOS;
+    trackVideo("Video Playback Started", new Properties().putValue("session_id", "next"));
+
+    // the paused session never exited, but the playing one may still be watched
+    assertNull(integration.findSession("paused"));
+    assertNotNull(integration.findSession("playing"));
+    assertNotNull(integration.findSession("next"));
+  }
+
+  @Test
+  public void eventsWithoutSessionIdShareDefaultSession() {
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Content Playing")
+        .properties(new Properties().putValue("position", 10))
+        .build());
+
+    assertTrue(integration.findSession(NielsenDCRIntegration.DEFAULT_SESSION_ID).isPlaying());
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties())
+        .build());
+
+    assertFalse(integration.findSession(NielsenDCRIntegration.DEFAULT_SESSION_ID).isPlaying());
+  }
+
+  @Test
+  public void eventAliasFromSettings() {
+    settings.eventAliases = new LinkedHashMap<>();
+    settings.eventAliases.put("Playback Halted", "Video Playback Paused");
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Playback Halted")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    verify(nielsen).stop();
+  }
+
+  @Test
+  public void nonVideoEventIsIgnored() {
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Product Viewed")
+        .properties(new Properties().putValue("assetId", 1234))
+        .build());
+
+    verifyZeroInteractions(nielsen);
+  }
+
+  @Test
+  public void stopEventsDoNotBuildMetadata() {
+    String[] events = {
+      "Video Playback Paused",
+      "Video Playback Seek Started",
+      "Video Playback Buffer Started",
+      "Video Playback Interrupted",
+      "Video Playback Exited",
+      "Video Playback Completed",
+      "Video Content Completed",
+      "Video Ad Completed",
+    };
+
+    for (String event : events) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo") //
+          .event(event)
+          .properties(new Properties() //
+              .putValue("asset_id", 1234)
+              .putValue("title", "Helmet Ad")
+              .putValue("position", 10))
+          .build());
+    }
+
+    verify(nielsen, never()).loadMetadata(any(JSONObject.class));
+    verify(nielsen, never()).play(any(JSONObject.class));
+    verify(nielsen, Mockito.atLeastOnce()).stop();
+    verify(nielsen).end();
+    // content metadata is looked up in the cache before it is built
+    assertEquals(0, integration.contentMetadataCache.misses());
+  }
+
+  @Test
+  public void contentMetadataIsReusedWhileInputsAreUnchanged() {
+    // load every time, so the metadata handed to the AppSdk can be compared
+    settings.suppressRedundantCalls = false;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Map<String, Object> nielsenOptions = new LinkedHashMap<>();
+    nielsenOptions.put("segB", "segmentB");
+    Properties properties = new Properties() //
+        .putValue("session_id", "binge")
+        .putValue("asset_id", 1234)
+        .putValue("title", "Episode 1")
+        .putValue("airdate", "2019-08-27");
+
+    for (int i = 0; i < 3; i++) {
+      integration.track(new TrackPayload.Builder().anonymousId("foo") //
+          .event("Video Playback Started")
+          .properties(properties)
+          .integration("nielsen-dcr", nielsenOptions)
+          .build());
+    }
+    nielsenOptions.put("segB", "segmentC");
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Started")
+        .properties(properties)
+        .integration("nielsen-dcr", nielsenOptions)
+        .build());
+
+    ArgumentCaptor<JSONObject> captor = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen, Mockito.times(4)).loadMetadata(captor.capture());
+    List<JSONObject> loaded = captor.getAllValues();
+    assertSame(loaded.get(0), loaded.get(1));
+    assertSame(loaded.get(0), loaded.get(2));
+    assertNotSame(loaded.get(0), loaded.get(3));
+    assertEquals(2, integration.contentMetadataCache.hits());
+    assertEquals(2, integration.contentMetadataCache.misses());
+    MetricsSnapshot snapshot = integration.metrics();
+    assertEquals(2, snapshot.metadataCacheHits());
+    assertEquals(2, snapshot.metadataCacheMisses());
+  }
+
+  @Test
+  public void bufferFlapWithinWindowIsCoalesced() {
+    settings.coalesceWindowMillis = 60000;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "flap")
+        .putValue("position", 10);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Buffer Started", properties);
+    trackVideo("Video Playback Buffer Completed", properties);
+
+    verify(nielsen, Mockito.times(1)).play(any(JSONObject.class));
+    verify(nielsen, never()).stop();
+    assertEquals(2, integration.metrics().coalescedSdkCalls());
+  }
+
+  @Test
+  public void bufferLongerThanWindowStops() throws InterruptedException {
+    settings.coalesceWindowMillis = 10;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "stall")
+        .putValue("position", 10);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Buffer Started", properties);
+
+    verify(nielsen, Mockito.timeout(1000)).stop();
+    trackVideo("Video Playback Buffer Completed", properties);
+    verify(nielsen, Mockito.times(2)).play(any(JSONObject.class));
+    assertEquals(0, integration.metrics().coalescedSdkCalls());
+  }
+
+  @Test
+  public void stopSentWhenWindowClosesIsNotSuppressed() {
+    settings.coalesceWindowMillis = 60000;
+    settings.suppressRedundantCalls = true;
+    settings.traceBufferSize = 16;
+    PlaybackSessionTest.ManualScheduler scheduler = new PlaybackSessionTest.ManualScheduler();
+    integration = new NielsenDCRIntegration(nielsen, settings, logger, scheduler);
+    Properties properties = new Properties() //
+        .putValue("session_id", "stall")
+        .putValue("position", 10);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Buffer Started", properties);
+    // the coalescing window closes
+    scheduler.runNextTick();
+    trackVideo("Video Playback Buffer Completed", properties);
+
+    InOrder order = Mockito.inOrder(nielsen);
+    order.verify(nielsen).play(any(JSONObject.class));
+    order.verify(nielsen).stop();
+    order.verify(nielsen).play(any(JSONObject.class));
+    assertEquals(0, integration.metrics().suppressedSdkCalls());
+    assertEquals(0, integration.metrics().coalescedSdkCalls());
+    String[] lines = integration.dumpTrace().split("\n");
+    assertTrue(lines[2].endsWith("Video Playback Buffer Started appSdk.stop() session=stall"));
+  }
+
+  @Test
+  public void otherEventFlushesPendingStop() {
+    settings.coalesceWindowMillis = 60000;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "seek")
+        .putValue("position", 10);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Seek Started", properties);
+    verify(nielsen, never()).stop();
+    trackVideo("Video Playback Paused", properties);
+
+    // the deferred stop is sent in place of the pause's own
+    verify(nielsen, Mockito.times(1)).stop();
+  }
+
+  @Test
+  public void screenDebounceLoadsSettledScreen() throws JSONException {
+    settings.screenDebounceMillis = 50;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Movies").build());
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Shows").build());
+
+    JSONObject expected = new JSONObject()
+        .put("section", "Shows")
+        .put("type", "static")
+        .put("segB", "")
+        .put("segC", "");
+    verify(nielsen, Mockito.timeout(1000)).loadMetadata(jsonEq(expected));
+    verify(nielsen, Mockito.times(1)).loadMetadata(any(JSONObject.class));
+    assertEquals(2, integration.metrics().suppressedScreenLoads());
+  }
+
+  @Test
+  public void repeatedScreenIsNotReloadedWithinWindow() {
+    settings.screenDebounceMillis = 60000;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    ScreenPayload home = new ScreenPayload.Builder().anonymousId("foo").name("Home").build();
+
+    integration.screen(home);
+    // going to the background loads the pending screen right away
+    integration.onBackground();
+    verify(nielsen).loadMetadata(any(JSONObject.class));
+    integration.screen(home);
+    integration.onBackground();
+
+    verify(nielsen, Mockito.times(1)).loadMetadata(any(JSONObject.class));
+    assertEquals(1, integration.metrics().suppressedScreenLoads());
+  }
+
+  @Test
+  public void pendingScreenIsLoadedBeforeVideo() {
+    settings.screenDebounceMillis = 60000;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    trackVideo("Video Playback Started", new Properties().putValue("assetId", 1234));
+
+    ArgumentCaptor<JSONObject> loaded = ArgumentCaptor.forClass(JSONObject.class);
+    InOrder order = Mockito.inOrder(nielsen);
+    order.verify(nielsen, Mockito.times(2)).loadMetadata(loaded.capture());
+    order.verify(nielsen).play(any(JSONObject.class));
+    assertEquals("static", loaded.getAllValues().get(0).optString("type"));
+    assertEquals("content", loaded.getAllValues().get(1).optString("type"));
+  }
+
+  @Test
+  public void backgroundSuspendsPlayheads() {
+    trackVideo("Video Playback Started", new Properties().putValue("session_id", "video"));
+    Map<String, Object> nielsenOptions = new LinkedHashMap<>();
+    nielsenOptions.put("backgroundAudio", true);
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Started")
+        .properties(new Properties().putValue("session_id", "audio"))
+        .integration("nielsen-dcr", nielsenOptions)
+        .build());
+    assertEquals(2, integration.metrics().activeTimers());
+
+    integration.onBackground();
+    assertEquals(1, integration.metrics().activeTimers());
+    integration.onForeground();
+    assertEquals(2, integration.metrics().activeTimers());
+
+    // only the ticks are touched, nothing is loaded or played again
+    verify(nielsen, Mockito.times(2)).loadMetadata(any(JSONObject.class));
+    verify(nielsen, Mockito.times(2)).play(any(JSONObject.class));
+    trackVideo("Video Playback Completed", new Properties().putValue("session_id", "video"));
+    trackVideo("Video Playback Completed", new Properties().putValue("session_id", "audio"));
+  }
+
+  @Test
+  public void lifecycleObserverDrivesAttachedIntegration() {
+    trackVideo("Video Playback Started", new Properties().putValue("session_id", "video"));
+    AppLifecycleObserver observer = new AppLifecycleObserver();
+
+    observer.onStop();
+    assertEquals(1, integration.metrics().activeTimers());
+
+    observer.attach(integration);
+    observer.onStop();
+    assertEquals(0, integration.metrics().activeTimers());
+    observer.onStart();
+    assertEquals(1, integration.metrics().activeTimers());
+    trackVideo("Video Playback Completed", new Properties().putValue("session_id", "video"));
+  }
+
+  @Test
+  public void redundantCallsAreSuppressed() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234)
+        .putValue("position", 10);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Resumed", properties);
+    trackVideo("Video Content Started", properties);
+    trackVideo("Video Playback Interrupted", properties);
+    trackVideo("Video Playback Paused", properties);
+    trackVideo("Video Playback Resumed", properties);
+
+    // the content was already loaded by the playback start, and the pause repeats the interruption
+    verify(nielsen, Mockito.times(1)).loadMetadata(any(JSONObject.class));
+    verify(nielsen, Mockito.times(2)).play(any(JSONObject.class));
+    verify(nielsen, Mockito.times(1)).stop();
+    assertEquals(3, integration.metrics().suppressedSdkCalls());
+    trackVideo("Video Playback Completed", properties);
+  }
+
+  @Test
+  public void redundantCallsAreSentByDefault() {
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Resumed", properties);
+    trackVideo("Video Content Started", properties);
+    trackVideo("Video Playback Paused", properties);
+    trackVideo("Video Playback Paused", properties);
+
+    verify(nielsen, Mockito.times(2)).loadMetadata(any(JSONObject.class));
+    verify(nielsen, Mockito.times(2)).play(any(JSONObject.class));
+    verify(nielsen, Mockito.times(2)).stop();
+    assertEquals(0, integration.metrics().suppressedSdkCalls());
+  }
+
+  @Test
+  public void contentIsReloadedAfterScreen() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234);
+
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Paused", properties);
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+    trackVideo("Video Playback Started", properties);
+
+    // the screen replaced the content on the AppSdk, so it is loaded and played again
+    ArgumentCaptor<JSONObject> loaded = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen, Mockito.times(3)).loadMetadata(loaded.capture());
+    assertEquals("content", loaded.getAllValues().get(2).optString("type"));
+    verify(nielsen, Mockito.times(2)).play(any(JSONObject.class));
+    assertEquals(0, integration.metrics().suppressedSdkCalls());
+  }
+
+  @Test
+  public void sessionsSharingAppSdkDoNotSuppressEachOther() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties main = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234);
+    Properties preview = new Properties() //
+        .putValue("session_id", "preview")
+        .putValue("asset_id", 5678);
+
+    trackVideo("Video Playback Started", main);
+    trackVideo("Video Playback Started", preview);
+    trackVideo("Video Playback Started", main);
+
+    // main is still playing as far as its session knows, but the AppSdk has moved on to preview
+    ArgumentCaptor<JSONObject> loaded = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen, Mockito.times(3)).loadMetadata(loaded.capture());
+    assertEquals("1234", loaded.getAllValues().get(2).optString("assetid"));
+    verify(nielsen, Mockito.times(3)).play(any(JSONObject.class));
+    assertEquals(0, integration.metrics().suppressedSdkCalls());
+  }
+
+  @Test
+  public void changedContentIsLoaded() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234);
+    trackVideo("Video Content Started", properties);
+    trackVideo("Video Content Started", properties.putValue("asset_id", 5678));
+    trackVideo("Video Playback Completed", properties);
+    trackVideo("Video Content Started", properties);
+
+    // after the end the same content needs loading again
+    verify(nielsen, Mockito.times(3)).loadMetadata(any(JSONObject.class));
+    verify(nielsen, Mockito.times(1)).end();
+  }
+
+  @Test
+  public void repeatedAdIsLoadedWithSameMetadata() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("asset_id", 1234)
+        .putValue("type", "mid-roll")
+        .putValue("title", "Ad");
+    trackVideo("Video Ad Started", properties);
+    trackVideo("Video Ad Completed", properties);
+    trackVideo("Video Ad Started", properties);
+    trackVideo("Video Playback Resumed", properties);
+    trackVideo("Video Playback Paused", properties);
+    trackVideo("Video Playback Resumed", properties);
+
+    // each ad start is an impression, but the metadata and channel info are built only once
+    ArgumentCaptor<JSONObject> metadata = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen, Mockito.times(2)).loadMetadata(metadata.capture());
+    assertSame(metadata.getAllValues().get(0), metadata.getAllValues().get(1));
+    ArgumentCaptor<JSONObject> channelInfo = ArgumentCaptor.forClass(JSONObject.class);
+    verify(nielsen, Mockito.times(2)).play(channelInfo.capture());
+    assertSame(channelInfo.getAllValues().get(0), channelInfo.getAllValues().get(1));
+    trackVideo("Video Playback Completed", properties);
+  }
+
+  @Test
+  public void metricsSnapshot() {
+    settings.suppressRedundantCalls = true;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("assetId", 1234)
+        .putValue("position", 10);
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Paused", properties);
+    trackVideo("Video Playback Paused", properties);
+    trackVideo("Order Completed", properties);
+    integration.screen(new ScreenPayload.Builder().anonymousId("foo").name("Home").build());
+
+    MetricsSnapshot metrics = integration.metrics();
+
+    assertEquals(1, metrics.eventLatency().get("Video Playback Started").count());
+    assertEquals(2, metrics.eventLatency().get("Video Playback Paused").count());
+    assertEquals(1, metrics.eventLatency().get(MetricsSnapshot.OTHER_TRACK).count());
+    assertEquals(1, metrics.eventLatency().get(MetricsSnapshot.SCREEN).count());
+    assertNull(metrics.eventLatency().get("Video Playback Resumed"));
+    assertEquals(2, metrics.sdkCallLatency().get("loadMetadata").count());
+    assertEquals(1, metrics.sdkCallLatency().get("play").count());
+    // the second pause finds the session already stopped
+    assertEquals(1, metrics.sdkCallLatency().get("stop").count());
+    assertEquals(1, metrics.suppressedSdkCalls());
+    assertEquals(0, metrics.activeTimers());
+  }
+
+  @Test
+  public void traceBufferSetting() {
+    assertEquals("", integration.dumpTrace());
+
+    settings.traceBufferSize = 16;
+    integration = new NielsenDCRIntegration(nielsen, settings, logger);
+    Properties properties = new Properties() //
+        .putValue("session_id", "main")
+        .putValue("assetId", 1234);
+    trackVideo("Video Playback Started", properties);
+    trackVideo("Video Playback Paused", properties);
+
+    String[] lines = integration.dumpTrace().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].contains("Video Playback Started appSdk.loadMetadata({"));
+    assertTrue(lines[1].contains("Video Playback Started appSdk.play({"));
+    assertTrue(lines[2].endsWith("Video Playback Paused appSdk.stop() session=main"));
+  }
+
+  @Test
+  public void factoryReportsTraceOfIntegrationHandedOut() {
+    Mockito.when(appFactory.create(eq(context), any(JSONObject.class), (IAppNotifier) isNull()))
+        .thenReturn(nielsen);
+    ValueMap settings = new ValueMap();
+    settings.put("appId", "12345");
+    settings.put("traceBufferSize", 16);
+    assertEquals("", factory.dumpTrace());
+
+    Integration<AppSdk> created = factory.create(settings, analytics);
+    created.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event("Video Playback Paused")
+        .properties(new Properties().putValue("session_id", "main"))
+        .build());
+
+    String[] lines = factory.dumpTrace().split("\n");
+    assertEquals(1, lines.length);
+    assertTrue(lines[0].endsWith("Video Playback Paused appSdk.stop() session=main"));
+  }
+
+  private void trackVideo(String event, Properties properties) {
+    integration.track(new TrackPayload.Builder().anonymousId("foo") //
+        .event(event)
+        .properties(properties)
+        .build());
+  }
+
   /**
    * Uses the string representation of the object. Useful for JSON objects.
    * @param expected Expected object
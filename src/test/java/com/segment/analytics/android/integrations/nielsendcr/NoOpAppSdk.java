@@ -0,0 +1,37 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.json.JSONObject;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * An {@link AppSdk} that ignores every call. Instances are created without running the real
+ * constructor, so it can be used on a plain JVM where the Nielsen SDK cannot start.
+ */
+public class NoOpAppSdk extends AppSdk {
+
+  private NoOpAppSdk() {
+    super(null, null, null);
+    throw new AssertionError("Use NoOpAppSdk.create()");
+  }
+
+  public static NoOpAppSdk create() {
+    return new ObjenesisStd().newInstance(NoOpAppSdk.class);
+  }
+
+  @Override
+  public void loadMetadata(JSONObject jsonMetadata) {}
+
+  @Override
+  public void play(JSONObject channelInfo) {}
+
+  @Override
+  public void stop() {}
+
+  @Override
+  public void end() {}
+
+  @Override
+  public void setPlayheadPosition(long playheadPosition) {}
+}
@@ -0,0 +1,122 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Drives one session from many threads at once and checks its bookkeeping still adds up. */
+public class PlaybackSessionStressTest {
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 20000;
+
+  @Test
+  public void concurrentStartAndStopLeaveNoTicksBehind() throws InterruptedException {
+    final AtomicInteger reported = new AtomicInteger();
+    SdkDispatcher counting =
+        new SdkDispatcher() {
+          @Override
+          public void loadMetadata(AppSdk appSdk, JSONObject metadata) {}
+
+          @Override
+          public void play(AppSdk appSdk, JSONObject channelInfo) {}
+
+          @Override
+          public void stop(AppSdk appSdk) {}
+
+          @Override
+          public void end(AppSdk appSdk) {}
+
+          @Override
+          public void setPlayheadPosition(AppSdk appSdk, long position) {
+            reported.incrementAndGet();
+          }
+        };
+    Metrics metrics = new Metrics();
+    final PlaybackSession session = newSession(counting, metrics);
+
+    run(
+        new Operation() {
+          @Override
+          public void run(Random random) {
+            switch (random.nextInt(4)) {
+              case 0:
+                session.startPlayhead(random.nextInt(1000));
+                break;
+              case 1:
+                session.stopPlayhead();
+                break;
+              case 2:
+                session.suspend();
+                break;
+              default:
+                session.resume();
+                break;
+            }
+          }
+        });
+
+    int ticking = session.isPlaying() && !session.isSuspended() ? 1 : 0;
+    assertEquals(ticking, metrics.activeTimers.get());
+    session.stopPlayhead();
+    assertEquals(0, metrics.activeTimers.get());
+
+    // a tick already running when the playhead stopped may still report once
+    Thread.sleep(50);
+    int afterStop = reported.get();
+    Thread.sleep(1200);
+    assertEquals(afterStop, reported.get());
+    assertFalse(session.isPlaying());
+  }
+
+  private static PlaybackSession newSession(SdkDispatcher sdk, Metrics metrics) {
+    return new PlaybackSession(
+        "stress",
+        NoOpAppSdk.create(),
+        sdk,
+        new PlayheadScheduler(new PlayheadScheduler.DaemonThreadFactory()),
+        metrics);
+  }
+
+  private static void run(final Operation operation) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    for (int i = 0; i < THREADS; i++) {
+      final long seed = i;
+      Thread thread =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  Random random = new Random(seed);
+                  try {
+                    start.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                      operation.run(random);
+                    }
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  } finally {
+                    done.countDown();
+                  }
+                }
+              });
+      thread.start();
+    }
+    start.countDown();
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+  }
+
+  private interface Operation {
+    void run(Random random);
+  }
+}
@@ -0,0 +1,369 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlaybackSessionTest {
+
+  private static final Runnable NO_FLUSH =
+      new Runnable() {
+        @Override
+        public void run() {}
+      };
+
+  @Mock AppSdk nielsen;
+  private ManualScheduler scheduler;
+  private Metrics metrics;
+  private PlaybackSession session;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    scheduler = new ManualScheduler();
+    metrics = new Metrics();
+    session = new PlaybackSession("main", nielsen, SdkDispatcher.DIRECT, scheduler, metrics);
+  }
+
+  @Test
+  public void reportsRightAwayAndThenOnWholeSeconds() {
+    session.startPlayhead(10);
+    assertEquals(0, scheduler.lastDelay);
+
+    scheduler.runNextTick();
+    verify(nielsen).setPlayheadPosition(10);
+    assertEquals(1000, scheduler.lastDelay);
+
+    scheduler.advanceMillis(1000);
+    scheduler.runNextTick();
+    verify(nielsen).setPlayheadPosition(11);
+    assertEquals(1000, scheduler.lastDelay);
+  }
+
+  @Test
+  public void lateTickReportsActualPositionAndRealigns() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+
+    // the tick due at 1s only runs at 3.4s
+    scheduler.advanceMillis(3400);
+    scheduler.runNextTick();
+
+    verify(nielsen).setPlayheadPosition(13);
+    verify(nielsen, never()).setPlayheadPosition(11);
+    verify(nielsen, never()).setPlayheadPosition(12);
+    assertEquals(600, scheduler.lastDelay);
+  }
+
+  @Test
+  public void positionIsNotReportedTwice() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+
+    scheduler.advanceMillis(400);
+    scheduler.runNextTick();
+
+    verify(nielsen).setPlayheadPosition(10);
+    assertEquals(600, scheduler.lastDelay);
+  }
+
+  @Test
+  public void delayIsRoundedUpToTheBoundary() {
+    session.startPlayhead(0);
+    scheduler.runNextTick();
+
+    scheduler.now += TimeUnit.MILLISECONDS.toNanos(1) + 1;
+    assertEquals(999, session.nextTickDelayMillis(scheduler.now));
+    scheduler.now += TimeUnit.MILLISECONDS.toNanos(998) - 1;
+    assertEquals(1, session.nextTickDelayMillis(scheduler.now));
+    assertEquals(0, session.positionAt(scheduler.now));
+  }
+
+  @Test
+  public void tickAfterStopIsIgnored() {
+    session.startPlayhead(10);
+    Runnable tick = scheduler.lastTask;
+
+    session.stopPlayhead();
+    tick.run();
+
+    verify(nielsen, never()).setPlayheadPosition(anyLong());
+  }
+
+  @Test
+  public void tickFromBeforeRestartIsIgnored() {
+    session.startPlayhead(10);
+    Runnable stale = scheduler.lastTask;
+    session.stopPlayhead();
+    session.startPlayhead(20);
+
+    stale.run();
+    scheduler.runNextTick();
+
+    verify(nielsen, never()).setPlayheadPosition(10);
+    verify(nielsen).setPlayheadPosition(20);
+  }
+
+  @Test
+  public void resumingCoalescedStopRestartsFromNewPosition() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+    session.deferStop(60000, NO_FLUSH);
+
+    scheduler.advanceMillis(5000);
+    session.resumePendingStop(42);
+    scheduler.runNextTick();
+
+    verify(nielsen).setPlayheadPosition(42);
+    verify(nielsen, never()).stop();
+  }
+
+  @Test
+  public void resumingCoalescedStopInBackgroundStaysSuspended() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+    session.deferStop(60000, NO_FLUSH);
+    session.suspend();
+    Runnable stale = scheduler.lastTask;
+
+    assertTrue(session.resumePendingStop(42));
+    assertSame(stale, scheduler.lastTask);
+    assertTrue(session.isSuspended());
+    assertEquals(0, metrics.activeTimers.get());
+
+    session.resume();
+    scheduler.runNextTick();
+    verify(nielsen).setPlayheadPosition(42);
+    assertEquals(1, metrics.activeTimers.get());
+  }
+
+  @Test
+  public void suspendedPlayheadResumesWhereItStopped() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+    Runnable stale = scheduler.lastTask;
+
+    scheduler.advanceMillis(2500);
+    session.suspend();
+    stale.run();
+    scheduler.advanceMillis(60000);
+    session.resume();
+    scheduler.runNextTick();
+
+    verify(nielsen).setPlayheadPosition(10);
+    verify(nielsen).setPlayheadPosition(12);
+    verify(nielsen, never()).setPlayheadPosition(72);
+    assertEquals(1, metrics.activeTimers.get());
+  }
+
+  @Test
+  public void backgroundPlaybackIsNotSuspended() {
+    session.setBackgroundPlayback(true);
+    session.startPlayhead(10);
+
+    assertFalse(session.suspend());
+    assertEquals(1, metrics.activeTimers.get());
+  }
+
+  @Test
+  public void stoppingSuspendedPlayhead() {
+    session.startPlayhead(10);
+    session.suspend();
+    assertEquals(0, metrics.activeTimers.get());
+
+    assertTrue(session.stopPlayhead());
+    assertFalse(session.resume());
+    assertEquals(0, metrics.activeTimers.get());
+  }
+
+  @Test
+  public void startingSuspendedPlayheadUsesNewPosition() {
+    session.startPlayhead(10);
+    session.suspend();
+
+    assertTrue(session.startPlayhead(30));
+    scheduler.runNextTick();
+
+    verify(nielsen).setPlayheadPosition(30);
+    assertFalse(session.isSuspended());
+    assertEquals(1, metrics.activeTimers.get());
+  }
+
+  @Test
+  public void takingPendingStopStopsPlayheadOnly() {
+    session.startPlayhead(10);
+    session.deferStop(60000, NO_FLUSH);
+
+    assertTrue(session.takePendingStop());
+
+    assertFalse(session.isPlaying());
+    assertFalse(session.isStopPending());
+    assertFalse(session.takePendingStop());
+    // sending the stop is left to the caller
+    verify(nielsen, never()).stop();
+  }
+
+  @Test
+  public void metrics() {
+    session.startPlayhead(10);
+    scheduler.runNextTick();
+    assertEquals(1, metrics.activeTimers.get());
+
+    scheduler.advanceMillis(1250);
+    scheduler.runNextTick();
+    session.stopPlayhead();
+
+    assertEquals(0, metrics.activeTimers.get());
+    MetricsSnapshot.Histogram jitter = metrics.tickJitter.snapshot();
+    assertEquals(2, jitter.count());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(250), jitter.maxNanos());
+  }
+
+  /**
+   * Scheduler whose clock only moves when told to and whose tasks only run when told to: either the
+   * last one scheduled, by {@link #runNextTick}, or all that fall due as the clock moves, in time
+   * order, by {@link #advanceTo}.
+   */
+  static class ManualScheduler extends PlayheadScheduler {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long sequence;
+    long now = TimeUnit.DAYS.toNanos(1);
+    Runnable lastTask;
+    long lastDelay = -1;
+
+    ManualScheduler() {
+      super(new DaemonThreadFactory());
+    }
+
+    @Override
+    long nanoTime() {
+      return now;
+    }
+
+    @Override
+    ScheduledFuture<?> delay(Runnable task, long delayMillis) {
+      lastTask = task;
+      lastDelay = delayMillis;
+      Task scheduled =
+          new Task(task, now + TimeUnit.MILLISECONDS.toNanos(delayMillis), sequence++);
+      tasks.add(scheduled);
+      return scheduled;
+    }
+
+    @Override
+    void cancel(ScheduledFuture<?> task) {
+      task.cancel(false);
+      tasks.remove(task);
+    }
+
+    @Override
+    int pendingTicks() {
+      return tasks.size();
+    }
+
+    void advanceMillis(long millis) {
+      now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    void runNextTick() {
+      lastTask.run();
+    }
+
+    /** Moves the clock forward to {@code nanos}, running every task due by then. */
+    void advanceTo(long nanos) {
+      Task next;
+      while ((next = tasks.peek()) != null && next.dueNanos <= nanos) {
+        tasks.poll();
+        now = Math.max(now, next.dueNanos);
+        next.run();
+      }
+      now = Math.max(now, nanos);
+    }
+
+    private class Task implements ScheduledFuture<Object>, Runnable {
+      final Runnable runnable;
+      final long dueNanos;
+      final long sequence;
+      boolean cancelled;
+      boolean done;
+
+      Task(Runnable runnable, long dueNanos, long sequence) {
+        this.runnable = runnable;
+        this.dueNanos = dueNanos;
+        this.sequence = sequence;
+      }
+
+      @Override
+      public void run() {
+        if (!cancelled) {
+          done = true;
+          runnable.run();
+        }
+      }
+
+      @Override
+      public long getDelay(TimeUnit unit) {
+        return unit.convert(dueNanos - now, TimeUnit.NANOSECONDS);
+      }
+
+      @Override
+      public int compareTo(Delayed other) {
+        Task task = (Task) other;
+        if (dueNanos != task.dueNanos) {
+          return dueNanos < task.dueNanos ? -1 : 1;
+        }
+        return sequence < task.sequence ? -1 : sequence == task.sequence ? 0 : 1;
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        if (done) {
+          return false;
+        }
+        cancelled = true;
+        return true;
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return cancelled;
+      }
+
+      @Override
+      public boolean isDone() {
+        return done || cancelled;
+      }
+
+      @Override
+      public Object get() {
+        return null;
+      }
+
+      @Override
+      public Object get(long timeout, TimeUnit unit) {
+        return null;
+      }
+    }
+  }
+}
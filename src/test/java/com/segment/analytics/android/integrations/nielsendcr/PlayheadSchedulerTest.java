@@ -0,0 +1,120 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlayheadSchedulerTest {
+
+  @Mock AppSdk nielsen;
+  private CountingThreadFactory threadFactory;
+  private PlayheadScheduler scheduler;
+  private NielsenDCRIntegration integration;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    threadFactory = new CountingThreadFactory();
+    scheduler = new PlayheadScheduler(threadFactory);
+    integration =
+        new NielsenDCRIntegration(
+            nielsen,
+            new NielsenDCRIntegration.Settings(),
+            Logger.with(Analytics.LogLevel.NONE),
+            scheduler);
+  }
+
+  @Test
+  public void sharedSchedulerIsSingleton() {
+    assertTrue(PlayheadScheduler.shared() == PlayheadScheduler.shared());
+  }
+
+  @Test
+  public void cancelRemovesTick() throws InterruptedException {
+    final CountDownLatch ticked = new CountDownLatch(1);
+    ScheduledFuture<?> tick =
+        scheduler.delay(
+            new Runnable() {
+              @Override
+              public void run() {
+                ticked.countDown();
+              }
+            },
+            TimeUnit.SECONDS.toMillis(1));
+
+    scheduler.cancel(tick);
+
+    assertTrue(!ticked.await(1500, TimeUnit.MILLISECONDS));
+
+    assertTrue(tick.isCancelled());
+    assertEquals(0, scheduler.pendingTicks());
+  }
+
+  @Test
+  public void playbackReusesSchedulerThread() {
+    for (int i = 0; i < 10; i++) {
+      integration.track(playback("Video Playback Started"));
+      integration.track(playback("Video Playback Buffer Started"));
+      integration.track(playback("Video Playback Buffer Completed"));
+      integration.track(playback("Video Playback Paused"));
+    }
+
+    assertEquals(1, threadFactory.created.get());
+    assertEquals(0, scheduler.pendingTicks());
+  }
+
+  @Test
+  public void playbackReportsPlayheadOnSharedThread() {
+    integration.track(playback("Video Playback Started"));
+
+    verify(nielsen, timeout(1000).atLeastOnce()).setPlayheadPosition(anyLong());
+
+    integration.track(playback("Video Playback Completed"));
+
+    assertEquals(0, scheduler.pendingTicks());
+  }
+
+  private static TrackPayload playback(String event) {
+    return new TrackPayload.Builder()
+        .anonymousId("foo")
+        .event(event)
+        .properties(new Properties().putValue("assetId", 1234).putValue("position", 10))
+        .build();
+  }
+
+  static class CountingThreadFactory implements ThreadFactory {
+    final AtomicInteger created = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      created.incrementAndGet();
+      Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
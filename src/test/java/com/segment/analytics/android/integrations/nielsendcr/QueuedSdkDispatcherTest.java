@@ -0,0 +1,262 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Logger;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QueuedSdkDispatcherTest {
+
+  @Mock AppSdk main;
+  @Mock AppSdk pip;
+  private final Logger logger = Logger.with(Analytics.LogLevel.NONE);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch blocked = new CountDownLatch(1);
+  private QueuedSdkDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    if (dispatcher != null) {
+      dispatcher.shutdown();
+    }
+  }
+
+  @Test
+  public void overflowPolicy() {
+    assertEquals(QueuedSdkDispatcher.OVERFLOW_BLOCK, QueuedSdkDispatcher.overflowPolicy(null));
+    assertEquals(QueuedSdkDispatcher.OVERFLOW_BLOCK, QueuedSdkDispatcher.overflowPolicy("block"));
+    assertEquals(
+        QueuedSdkDispatcher.OVERFLOW_DROP_OLDEST, QueuedSdkDispatcher.overflowPolicy("dropOldest"));
+    assertEquals(
+        QueuedSdkDispatcher.OVERFLOW_DROP_NEWEST, QueuedSdkDispatcher.overflowPolicy("dropNewest"));
+  }
+
+  @Test
+  public void callsAreMadeInSubmissionOrder() {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            16, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+    JSONObject metadata = new JSONObject();
+    JSONObject channelInfo = new JSONObject();
+
+    dispatcher.loadMetadata(main, metadata);
+    dispatcher.play(main, channelInfo);
+    dispatcher.loadMetadata(pip, metadata);
+    dispatcher.setPlayheadPosition(main, 10);
+    dispatcher.play(pip, channelInfo);
+    dispatcher.stop(main);
+    dispatcher.end(pip);
+
+    verify(pip, timeout(1000)).end();
+    InOrder mainOrder = inOrder(main);
+    mainOrder.verify(main).loadMetadata(metadata);
+    mainOrder.verify(main).play(channelInfo);
+    mainOrder.verify(main).setPlayheadPosition(10);
+    mainOrder.verify(main).stop();
+    InOrder pipOrder = inOrder(pip);
+    pipOrder.verify(pip).loadMetadata(metadata);
+    pipOrder.verify(pip).play(channelInfo);
+    pipOrder.verify(pip).end();
+    assertEquals(7, dispatcher.executed());
+  }
+
+  @Test
+  public void failingCallDoesNotStopWorker() {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            16, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+    doThrow(new IllegalStateException("boom")).when(main).stop();
+
+    dispatcher.stop(main);
+    dispatcher.end(main);
+
+    verify(main, timeout(1000)).end();
+  }
+
+  @Test
+  public void dropNewest() throws InterruptedException {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            2, QueuedSdkDispatcher.OVERFLOW_DROP_NEWEST, SdkDispatcher.DIRECT, logger);
+    blockWorker();
+
+    dispatcher.setPlayheadPosition(main, 1);
+    dispatcher.setPlayheadPosition(main, 2);
+    dispatcher.setPlayheadPosition(main, 3);
+
+    assertEquals(2, dispatcher.depth());
+    assertEquals(2, dispatcher.maxDepth());
+    assertEquals(1, dispatcher.dropped());
+
+    release.countDown();
+    verify(main, timeout(1000)).setPlayheadPosition(2);
+    verify(main).setPlayheadPosition(1);
+    verify(main, never()).setPlayheadPosition(3);
+  }
+
+  @Test
+  public void dropOldest() throws InterruptedException {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            2, QueuedSdkDispatcher.OVERFLOW_DROP_OLDEST, SdkDispatcher.DIRECT, logger);
+    blockWorker();
+
+    dispatcher.setPlayheadPosition(main, 1);
+    dispatcher.setPlayheadPosition(main, 2);
+    dispatcher.setPlayheadPosition(main, 3);
+
+    assertEquals(2, dispatcher.depth());
+    assertEquals(1, dispatcher.dropped());
+
+    release.countDown();
+    verify(main, timeout(1000)).setPlayheadPosition(3);
+    verify(main).setPlayheadPosition(2);
+    verify(main, never()).setPlayheadPosition(1);
+  }
+
+  @Test
+  public void blockWaitsForRoom() throws InterruptedException {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            1, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+    blockWorker();
+    dispatcher.play(main, null);
+
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            dispatcher.stop(main);
+            submitted.countDown();
+          }
+        };
+    producer.start();
+
+    assertTrue(!submitted.await(100, TimeUnit.MILLISECONDS));
+    release.countDown();
+    assertTrue(submitted.await(1, TimeUnit.SECONDS));
+    verify(main, timeout(1000)).stop();
+    assertEquals(0, dispatcher.dropped());
+  }
+
+  @Test
+  public void playheadPositionsNeverWait() throws InterruptedException {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            1, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+    blockWorker();
+    dispatcher.setPlayheadPosition(main, 1);
+
+    // returns at once even though the queue is full
+    dispatcher.setPlayheadPosition(main, 2);
+
+    assertEquals(1, dispatcher.dropped());
+    release.countDown();
+    verify(main, timeout(1000)).setPlayheadPosition(1);
+    verify(main, never()).setPlayheadPosition(2);
+  }
+
+  @Test
+  public void shutdownRejectsWaitingCallers() throws InterruptedException {
+    dispatcher =
+        new QueuedSdkDispatcher(
+            1, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+    blockWorker();
+    dispatcher.play(main, null);
+
+    final CountDownLatch submitted = new CountDownLatch(1);
+    Thread producer =
+        new Thread() {
+          @Override
+          public void run() {
+            dispatcher.stop(main);
+            submitted.countDown();
+          }
+        };
+    producer.start();
+    assertTrue(!submitted.await(100, TimeUnit.MILLISECONDS));
+
+    dispatcher.shutdown();
+
+    // the waiting caller gives up while the worker is still stuck in the AppSdk
+    assertTrue(submitted.await(1, TimeUnit.SECONDS));
+    assertEquals(1, dispatcher.dropped());
+    release.countDown();
+    verify(main, timeout(1000)).play(null);
+    verify(main, never()).stop();
+  }
+
+  /** Parks the worker inside an AppSdk call until {@link #release} is counted down. */
+  private void blockWorker() throws InterruptedException {
+    doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) throws Throwable {
+                blocked.countDown();
+                release.await();
+                return null;
+              }
+            })
+        .when(pip)
+        .loadMetadata(any(JSONObject.class));
+    dispatcher.loadMetadata(pip, new JSONObject());
+    assertTrue(blocked.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void slowAppSdkDoesNotBlockCaller() {
+    RecordingAppSdk slow =
+        RecordingAppSdk.create(16).latency(SdkDispatcher.STOP, 50, TimeUnit.MILLISECONDS);
+    dispatcher =
+        new QueuedSdkDispatcher(
+            16, QueuedSdkDispatcher.OVERFLOW_BLOCK, SdkDispatcher.DIRECT, logger);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 4; i++) {
+      dispatcher.stop(slow);
+    }
+    long elapsed = System.nanoTime() - start;
+
+    assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(50));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (slow.calls(SdkDispatcher.STOP) < 4 && System.nanoTime() < deadline) {
+      Thread.yield();
+    }
+    assertEquals(4, slow.calls(SdkDispatcher.STOP));
+  }
+
+}
@@ -0,0 +1,220 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import android.content.Context;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.nielsen.app.sdk.IAppNotifier;
+
+import org.json.JSONObject;
+import org.objenesis.ObjenesisStd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link AppSdk} that records every call into preallocated arrays instead of talking to Nielsen,
+ * and can be made slow or failing per method to model a misbehaving SDK. Like {@link NoOpAppSdk}
+ * it is created without running the real constructor, so it works on a plain JVM.
+ *
+ * <p>Recording claims a slot with a single atomic increment and does not allocate, so it can be
+ * called from several threads and does not distort allocation measurements. Calls past the
+ * capacity are counted in {@link #dropped()} but not recorded. Methods are identified by the
+ * constants in {@link SdkDispatcher}.
+ */
+public class RecordingAppSdk extends AppSdk {
+
+  private static final int METHODS = SdkDispatcher.METHOD_NAMES.length;
+
+  // assigned in create(): Objenesis skips constructors and field initializers
+  private JSONObject config;
+  private AtomicInteger next;
+  private int[] methods;
+  private Object[] arguments;
+  private long[] nanos;
+  private AtomicIntegerArray calls;
+  private long[] latencyNanos;
+  private int[] failEvery;
+  private RuntimeException[] failures;
+
+  private RecordingAppSdk() {
+    super(null, null, null);
+    throw new AssertionError("Use RecordingAppSdk.create()");
+  }
+
+  /** Returns a fake that records up to {@code capacity} calls. */
+  public static RecordingAppSdk create(int capacity) {
+    return create(capacity, null);
+  }
+
+  private static RecordingAppSdk create(int capacity, JSONObject config) {
+    RecordingAppSdk appSdk = new ObjenesisStd().newInstance(RecordingAppSdk.class);
+    appSdk.config = config;
+    appSdk.next = new AtomicInteger();
+    appSdk.methods = new int[capacity];
+    appSdk.arguments = new Object[capacity];
+    appSdk.nanos = new long[capacity];
+    appSdk.calls = new AtomicIntegerArray(METHODS);
+    appSdk.latencyNanos = new long[METHODS];
+    appSdk.failEvery = new int[METHODS];
+    appSdk.failures = new RuntimeException[METHODS];
+    return appSdk;
+  }
+
+  /**
+   * Makes every call to {@code method} block for {@code latency} before it returns. Set up the fake
+   * before handing it to the integration; changes are not published to other threads.
+   */
+  public RecordingAppSdk latency(int method, long latency, TimeUnit unit) {
+    latencyNanos[method] = unit.toNanos(latency);
+    return this;
+  }
+
+  /** Makes every {@code every}th call to {@code method} throw, after it has been recorded. */
+  public RecordingAppSdk failEvery(int method, int every) {
+    failEvery[method] = every;
+    // allocated once so that failing does not allocate either
+    failures[method] =
+        new IllegalStateException("Injected failure in " + SdkDispatcher.METHOD_NAMES[method]);
+    return this;
+  }
+
+  /** The configuration the instance was created with by {@link Factory}, or null. */
+  public JSONObject config() {
+    return config;
+  }
+
+  /** Number of calls recorded. */
+  public int size() {
+    return Math.min(next.get(), methods.length);
+  }
+
+  /** Number of calls that did not fit. */
+  public int dropped() {
+    return Math.max(0, next.get() - methods.length);
+  }
+
+  /** Number of calls made to {@code method}, recorded or not. */
+  public int calls(int method) {
+    return calls.get(method);
+  }
+
+  /** The method of the {@code index}th call. */
+  public int method(int index) {
+    return methods[index];
+  }
+
+  /** The argument of the {@code index}th call: JSON, a boxed position, or null. */
+  public Object argument(int index) {
+    return arguments[index];
+  }
+
+  /** {@link System#nanoTime()} when the {@code index}th call was made. */
+  public long nanos(int index) {
+    return nanos[index];
+  }
+
+  /** The calls recorded, one per line, e.g. {@code stop()} or {@code setPlayheadPosition(10)}. */
+  public String callSequence() {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0, size = size(); i < size; i++) {
+      out.append(SdkDispatcher.METHOD_NAMES[methods[i]])
+          .append('(')
+          .append(arguments[i] == null ? "" : arguments[i])
+          .append(")\n");
+    }
+    return out.toString();
+  }
+
+  @Override
+  public void loadMetadata(JSONObject jsonMetadata) {
+    call(SdkDispatcher.LOAD_METADATA, jsonMetadata);
+  }
+
+  @Override
+  public void play(JSONObject channelInfo) {
+    call(SdkDispatcher.PLAY, channelInfo);
+  }
+
+  @Override
+  public void stop() {
+    call(SdkDispatcher.STOP, null);
+  }
+
+  @Override
+  public void end() {
+    call(SdkDispatcher.END, null);
+  }
+
+  @Override
+  public void setPlayheadPosition(long playheadPosition) {
+    // boxing only allocates for positions above 127
+    call(SdkDispatcher.SET_PLAYHEAD_POSITION, playheadPosition);
+  }
+
+  @Override
+  public void close() {}
+
+  private void call(int method, Object argument) {
+    long start = System.nanoTime();
+    int slot = next.getAndIncrement();
+    if (slot < methods.length) {
+      methods[slot] = method;
+      arguments[slot] = argument;
+      nanos[slot] = start;
+    }
+    int count = calls.incrementAndGet(method);
+
+    long latency = latencyNanos[method];
+    if (latency > 0) {
+      // parkNanos may return early, so wait out the remainder
+      long deadline = start + latency;
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remaining);
+      }
+    }
+    int every = failEvery[method];
+    if (every > 0 && count % every == 0) {
+      throw failures[method];
+    }
+  }
+
+  /**
+   * Creates a {@link RecordingAppSdk} for every AppSdk the integration asks for, keeping the
+   * configuration it was created with, so the fake can be used through {@link
+   * NielsenDCRIntegrationFactory}.
+   */
+  public static class Factory implements NielsenDCRIntegrationFactory.AppSDKFactory {
+    private final int capacity;
+    private final List<RecordingAppSdk> created =
+        Collections.synchronizedList(new ArrayList<RecordingAppSdk>());
+
+    public Factory(int capacity) {
+      this.capacity = capacity;
+    }
+
+    @Override
+    public AppSdk create(Context context, JSONObject appInfo, IAppNotifier notifier) {
+      RecordingAppSdk appSdk = configure(RecordingAppSdk.create(capacity, appInfo));
+      created.add(appSdk);
+      return appSdk;
+    }
+
+    /** Override to set up latency or failures on each new instance. */
+    protected RecordingAppSdk configure(RecordingAppSdk appSdk) {
+      return appSdk;
+    }
+
+    /** The instances created so far, oldest first. */
+    public List<RecordingAppSdk> created() {
+      synchronized (created) {
+        return new ArrayList<>(created);
+      }
+    }
+  }
+}
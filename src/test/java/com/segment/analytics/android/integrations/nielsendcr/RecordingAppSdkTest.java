@@ -0,0 +1,75 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordingAppSdkTest {
+
+  @Test
+  public void recordsCallsInOrder() throws JSONException {
+    RecordingAppSdk appSdk = RecordingAppSdk.create(8);
+    JSONObject metadata = new JSONObject().put("type", "content");
+
+    appSdk.loadMetadata(metadata);
+    appSdk.setPlayheadPosition(10);
+    appSdk.stop();
+
+    assertEquals(3, appSdk.size());
+    assertEquals(SdkDispatcher.LOAD_METADATA, appSdk.method(0));
+    assertSame(metadata, appSdk.argument(0));
+    assertEquals(10L, appSdk.argument(1));
+    assertEquals(1, appSdk.calls(SdkDispatcher.STOP));
+    assertEquals(
+        "loadMetadata({\"type\":\"content\"})\nsetPlayheadPosition(10)\nstop()\n",
+        appSdk.callSequence());
+  }
+
+  @Test
+  public void callsPastCapacityAreCounted() {
+    RecordingAppSdk appSdk = RecordingAppSdk.create(2);
+
+    appSdk.stop();
+    appSdk.stop();
+    appSdk.end();
+
+    assertEquals(2, appSdk.size());
+    assertEquals(1, appSdk.dropped());
+    assertEquals(1, appSdk.calls(SdkDispatcher.END));
+  }
+
+  @Test
+  public void injectedLatency() {
+    RecordingAppSdk appSdk =
+        RecordingAppSdk.create(8).latency(SdkDispatcher.STOP, 20, TimeUnit.MILLISECONDS);
+
+    long start = System.nanoTime();
+    appSdk.stop();
+    long elapsed = System.nanoTime() - start;
+
+    assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void injectedFailures() {
+    RecordingAppSdk appSdk = RecordingAppSdk.create(8).failEvery(SdkDispatcher.PLAY, 2);
+
+    appSdk.play(null);
+    try {
+      appSdk.play(null);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    appSdk.play(null);
+
+    // failing calls are still recorded
+    assertEquals(3, appSdk.size());
+  }
+}
@@ -0,0 +1,238 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.BasePayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+import com.segment.analytics.internal.Utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays recorded Segment track and screen calls through {@link NielsenDCRIntegration} as fast as
+ * possible, against a {@link RecordingAppSdk}, and reports events per second, bytes allocated per
+ * event and the AppSdk calls that resulted. Run with {@code ./gradlew replay
+ * -PreplayFile=events.jsonl}.
+ *
+ * <p>The input is one Segment payload per line as exported by the pipeline; lines that are not
+ * {@code track} or {@code screen} calls are skipped. Payloads are parsed before the clock starts.
+ *
+ * <p>Playhead ticks run on a virtual clock that follows the payloads' {@code timestamp}, so an
+ * hour of recorded playback produces an hour of ticks, in a fixed order, in a fraction of a second.
+ */
+public class ReplayHarness {
+
+  // AppSdk calls recorded per replay; later ones are counted but not kept
+  private static final int RECORDED_CALLS = 1 << 20;
+
+  public static void main(String[] args) throws IOException, JSONException {
+    if (args.length < 1) {
+      System.err.println("Usage: ReplayHarness <events.jsonl> [iterations]");
+      System.exit(1);
+    }
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    List<Event> events;
+    Reader reader = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+    try {
+      events = read(reader);
+    } finally {
+      reader.close();
+    }
+
+    // earlier iterations warm the JIT up; only the last one is reported
+    Result result = null;
+    for (int i = 0; i < iterations; i++) {
+      result = replay(events, new NielsenDCRIntegration.Settings());
+    }
+    System.out.println(result);
+    System.out.println(result.callSequence());
+  }
+
+  /** Parses JSONL payloads, skipping blank lines and calls other than track and screen. */
+  static List<Event> read(Reader reader) throws IOException, JSONException {
+    BufferedReader lines = new BufferedReader(reader);
+    List<Event> events = new ArrayList<>();
+    String line;
+    while ((line = lines.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      Event event = parse(new JSONObject(line));
+      if (event != null) {
+        events.add(event);
+      }
+    }
+    return events;
+  }
+
+  private static Event parse(JSONObject json) throws JSONException {
+    String type = json.optString("type");
+    BasePayload.Builder<?, ?> builder;
+    if ("track".equals(type)) {
+      builder =
+          new TrackPayload.Builder()
+              .event(json.getString("event"))
+              .properties(toMap(json.optJSONObject("properties")));
+    } else if ("screen".equals(type)) {
+      builder =
+          new ScreenPayload.Builder()
+              .name(json.optString("name", null))
+              .properties(toMap(json.optJSONObject("properties")));
+    } else {
+      return null;
+    }
+    String userId = json.optString("userId", null);
+    if (userId != null) {
+      builder.userId(userId);
+    }
+    builder.anonymousId(json.optString("anonymousId", "replay"));
+    builder.integrations(toMap(json.optJSONObject("integrations")));
+    String timestamp = json.optString("timestamp", json.optString("originalTimestamp", null));
+    Date date = timestamp == null ? null : Utils.parseISO8601Date(timestamp);
+    if (date != null) {
+      builder.timestamp(date);
+    }
+    long nanos = date == null ? -1 : TimeUnit.MILLISECONDS.toNanos(date.getTime());
+    return new Event(builder.build(), nanos);
+  }
+
+  private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    if (json == null) {
+      return map;
+    }
+    for (Iterator<String> keys = json.keys(); keys.hasNext(); ) {
+      String key = keys.next();
+      map.put(key, toValue(json.get(key)));
+    }
+    return map;
+  }
+
+  private static Object toValue(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      return toMap((JSONObject) value);
+    }
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      List<Object> list = new ArrayList<>(array.length());
+      for (int i = 0; i < array.length(); i++) {
+        list.add(toValue(array.get(i)));
+      }
+      return list;
+    }
+    return value == JSONObject.NULL ? null : value;
+  }
+
+  /** Drives {@code events} through a new integration configured with {@code settings}. */
+  static Result replay(List<Event> events, NielsenDCRIntegration.Settings settings) {
+    PlaybackSessionTest.ManualScheduler scheduler = new PlaybackSessionTest.ManualScheduler();
+    RecordingAppSdk appSdk = RecordingAppSdk.create(RECORDED_CALLS);
+    NielsenDCRIntegration integration =
+        new NielsenDCRIntegration(
+            appSdk, settings, Logger.with(Analytics.LogLevel.NONE), scheduler);
+
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0, size = events.size(); i < size; i++) {
+      Event event = events.get(i);
+      if (event.nanos >= 0) {
+        scheduler.advanceTo(event.nanos);
+      }
+      if (event.payload instanceof TrackPayload) {
+        integration.track((TrackPayload) event.payload);
+      } else {
+        integration.screen((ScreenPayload) event.payload);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocatedAfter = allocatedBytes();
+
+    long allocated = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+    return new Result(events.size(), elapsed, allocated, appSdk);
+  }
+
+  /** Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell. */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+    if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  static class Event {
+    final BasePayload payload;
+    final long nanos; // wall clock time of the call, -1 if the payload had no timestamp
+
+    Event(BasePayload payload, long nanos) {
+      this.payload = payload;
+      this.nanos = nanos;
+    }
+  }
+
+  static class Result {
+    final int events;
+    final long elapsedNanos;
+    final long allocatedBytes; // -1 when not supported
+    private final RecordingAppSdk calls;
+
+    Result(int events, long elapsedNanos, long allocatedBytes, RecordingAppSdk calls) {
+      this.events = events;
+      this.elapsedNanos = elapsedNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.calls = calls;
+    }
+
+    double eventsPerSecond() {
+      return events / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    long bytesPerEvent() {
+      return allocatedBytes < 0 || events == 0 ? -1 : allocatedBytes / events;
+    }
+
+    int sdkCalls() {
+      return calls.size() + calls.dropped();
+    }
+
+    /** The AppSdk calls made, one per line, e.g. {@code stop()} or {@code play({...})}. */
+    String callSequence() {
+      return calls.callSequence();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d events in %.1fms: %.0f events/s, %d bytes/event, %d AppSdk calls",
+          events,
+          elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1),
+          eventsPerSecond(),
+          bytesPerEvent(),
+          sdkCalls());
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplayHarnessTest {
+
+  private static final String EVENTS =
+      "{\"type\":\"track\",\"event\":\"Video Playback Started\",\"timestamp\":"
+          + "\"2021-03-01T10:00:00.000Z\",\"properties\":{\"session_id\":\"a\",\"position\":10}}\n"
+          + "\n"
+          + "{\"type\":\"identify\",\"userId\":\"someone\"}\n"
+          + "{\"type\":\"track\",\"event\":\"Video Playback Paused\",\"timestamp\":"
+          + "\"2021-03-01T10:00:02.500Z\",\"properties\":{\"session_id\":\"a\",\"position\":12}}\n"
+          + "{\"type\":\"screen\",\"name\":\"Home\",\"timestamp\":\"2021-03-01T10:00:03.000Z\"}\n";
+
+  @Test
+  public void skipsOtherCalls() throws IOException, JSONException {
+    List<ReplayHarness.Event> events = ReplayHarness.read(new StringReader(EVENTS));
+
+    assertEquals(3, events.size());
+  }
+
+  @Test
+  public void replaysOnRecordedClock() throws IOException, JSONException {
+    List<ReplayHarness.Event> events = ReplayHarness.read(new StringReader(EVENTS));
+
+    ReplayHarness.Result result =
+        ReplayHarness.replay(events, new NielsenDCRIntegration.Settings());
+
+    assertEquals(3, result.events);
+    assertEquals(7, result.sdkCalls());
+    String[] calls = result.callSequence().split("\n");
+    assertEquals("loadMetadata", calls[0].substring(0, calls[0].indexOf('(')));
+    assertEquals("play", calls[1].substring(0, calls[1].indexOf('(')));
+    // ticks at 0s, 1s and 2s of the two and a half seconds played
+    assertEquals("setPlayheadPosition(10)", calls[2]);
+    assertEquals("setPlayheadPosition(11)", calls[3]);
+    assertEquals("setPlayheadPosition(12)", calls[4]);
+    assertEquals("stop()", calls[5]);
+    assertEquals("loadMetadata", calls[6].substring(0, calls[6].indexOf('(')));
+  }
+}
@@ -0,0 +1,189 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.nielsen.app.sdk.AppSdk;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.integrations.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SessionJournalTest {
+  private static final int SIZE = 4096;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  @Mock AppSdk previous;
+  @Mock AppSdk next;
+  private final Logger logger = Logger.with(Analytics.LogLevel.NONE);
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    file = new File(folder.getRoot(), SessionJournal.FILE_NAME);
+  }
+
+  @Test
+  public void playingSessionIsClosedAfterRestart() throws IOException, JSONException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    SdkDispatcher main = journal.forSession("main", SdkDispatcher.DIRECT);
+    JSONObject metadata = new JSONObject().put("assetid", "1234").put("type", "content");
+    main.loadMetadata(previous, metadata);
+    main.play(previous, new JSONObject());
+    main.setPlayheadPosition(previous, 41);
+    main.setPlayheadPosition(previous, 42);
+
+    // the process dies here; a new one maps the same file
+    SessionJournal restarted = SessionJournal.open(file, SIZE, logger);
+    assertEquals(Collections.singletonMap("main", 42L), restarted.playingSessions());
+    assertEquals(1, restarted.reconcile(next, SdkDispatcher.DIRECT));
+
+    ArgumentCaptor<JSONObject> loaded = ArgumentCaptor.forClass(JSONObject.class);
+    InOrder order = inOrder(next);
+    order.verify(next).loadMetadata(loaded.capture());
+    order.verify(next).setPlayheadPosition(42);
+    order.verify(next).end();
+    assertEquals(metadata.toString(), loaded.getValue().toString());
+    assertTrue(SessionJournal.open(file, SIZE, logger).playingSessions().isEmpty());
+  }
+
+  @Test
+  public void pooledSessionIsClosedOnItsAppId() throws IOException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    journal.forSession("main", SdkDispatcher.DIRECT).play(previous, new JSONObject());
+    SdkDispatcher brand = journal.forSession("brand", "67890", SdkDispatcher.DIRECT);
+    brand.play(previous, new JSONObject());
+    brand.setPlayheadPosition(previous, 7);
+    final AppSdk pooled = mock(AppSdk.class);
+    AppSdkPool appSdks =
+        new AppSdkPool(
+            "12345",
+            next,
+            1,
+            1000,
+            new AppSdkPool.Creator() {
+              @Override
+              public AppSdk create(String appId) {
+                return "67890".equals(appId) ? pooled : null;
+              }
+            },
+            logger);
+
+    SessionJournal restarted = SessionJournal.open(file, SIZE, logger);
+
+    assertEquals(2, restarted.reconcile(next, appSdks, SdkDispatcher.DIRECT));
+    verify(next).end();
+    verify(pooled).setPlayheadPosition(7);
+    verify(pooled).end();
+  }
+
+  @Test
+  public void stoppedAndEndedSessionsAreNotClosedAgain() throws IOException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    SdkDispatcher paused = journal.forSession("paused", SdkDispatcher.DIRECT);
+    paused.play(previous, new JSONObject());
+    paused.stop(previous);
+    SdkDispatcher ended = journal.forSession("ended", SdkDispatcher.DIRECT);
+    ended.play(previous, new JSONObject());
+    ended.end(previous);
+    SdkDispatcher exited = journal.forSession("exited", SdkDispatcher.DIRECT);
+    exited.play(previous, new JSONObject());
+    journal.forget("exited");
+
+    SessionJournal restarted = SessionJournal.open(file, SIZE, logger);
+
+    assertEquals(0, restarted.reconcile(next, SdkDispatcher.DIRECT));
+    verifyZeroInteractions(next);
+  }
+
+  @Test
+  public void compactionKeepsJournalWithinSize() throws IOException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    SdkDispatcher main = journal.forSession("main", SdkDispatcher.DIRECT);
+    SdkDispatcher pip = journal.forSession("pip", SdkDispatcher.DIRECT);
+    main.play(previous, new JSONObject());
+    pip.play(previous, new JSONObject());
+    for (int position = 0; position < 10000; position++) {
+      main.setPlayheadPosition(previous, position);
+      pip.setPlayheadPosition(previous, position * 2);
+    }
+    pip.stop(previous);
+
+    assertEquals(SIZE, file.length());
+    assertTrue(journal.size() < SIZE);
+    SessionJournal restarted = SessionJournal.open(file, SIZE, logger);
+    assertEquals(Collections.singletonMap("main", 9999L), restarted.playingSessions());
+  }
+
+  @Test
+  public void recordCutShortIsIgnored() throws IOException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    SdkDispatcher main = journal.forSession("main", SdkDispatcher.DIRECT);
+    main.play(previous, new JSONObject());
+    main.setPlayheadPosition(previous, 7);
+    // a stop whose body was written but whose type byte never was
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(journal.size() + 1);
+    raf.writeShort(4);
+    raf.write("main".getBytes("UTF-8"));
+    raf.close();
+
+    SessionJournal restarted = SessionJournal.open(file, SIZE, logger);
+
+    assertEquals(Collections.singletonMap("main", 7L), restarted.playingSessions());
+  }
+
+  @Test
+  public void corruptJournalIsDiscarded() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(SIZE);
+    raf.writeInt(SessionJournal.MAGIC);
+    raf.writeByte(99);
+    raf.close();
+
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+
+    assertEquals(0, journal.reconcile(next, SdkDispatcher.DIRECT));
+    verify(next, never()).end();
+    verify(next, never()).setPlayheadPosition(anyLong());
+    verify(next, never()).loadMetadata(any(JSONObject.class));
+  }
+
+  @Test
+  public void resizedJournalStartsOver() throws IOException {
+    SessionJournal journal = SessionJournal.open(file, SIZE, logger);
+    journal.forSession("main", SdkDispatcher.DIRECT).play(previous, new JSONObject());
+
+    SessionJournal resized = SessionJournal.open(file, SIZE * 2, logger);
+
+    assertEquals(SIZE * 2, file.length());
+    assertTrue(resized.playingSessions().isEmpty());
+  }
+}
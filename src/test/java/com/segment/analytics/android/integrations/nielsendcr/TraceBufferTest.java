@@ -0,0 +1,53 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceBufferTest {
+
+  @Test
+  public void capacityIsRoundedUpToPowerOfTwo() {
+    assertEquals(8, new TraceBuffer(8).capacity());
+    assertEquals(16, new TraceBuffer(9).capacity());
+  }
+
+  @Test
+  public void dumpFormatsRecordsOldestFirst() throws JSONException {
+    TraceBuffer trace = new TraceBuffer(8);
+    JSONObject channelInfo = new JSONObject().put("channelName", "main");
+
+    trace.record(EventTable.PLAYBACK_STARTED, SdkDispatcher.PLAY, "main", channelInfo);
+    trace.record(EventTable.PLAYBACK_PAUSED, SdkDispatcher.STOP, "main", null);
+    trace.record(Metrics.SCREEN, SdkDispatcher.LOAD_METADATA, null, null);
+
+    String[] lines = trace.dump().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("+0.000ms Video Playback Started"));
+    assertTrue(lines[0].endsWith("appSdk.play({\"channelName\":\"main\"}) session=main"));
+    assertTrue(lines[1].endsWith("Video Playback Paused appSdk.stop() session=main"));
+    assertTrue(lines[2].endsWith("screen appSdk.loadMetadata() session=-"));
+  }
+
+  @Test
+  public void oldestRecordsAreOverwritten() {
+    TraceBuffer trace = new TraceBuffer(4);
+    for (int i = 0; i < 6; i++) {
+      trace.record(EventTable.PLAYBACK_PAUSED, SdkDispatcher.STOP, "session" + i, null);
+    }
+
+    String[] lines = trace.dump().split("\n");
+    assertEquals(6, trace.recorded());
+    assertEquals(4, lines.length);
+    assertTrue(lines[0].endsWith("session=session2"));
+    assertTrue(lines[3].endsWith("session=session5"));
+  }
+
+  @Test
+  public void emptyDump() {
+    assertEquals("", new TraceBuffer(4).dump());
+  }
+}
@@ -0,0 +1,181 @@
+package com.segment.analytics.android.integrations.nielsendcr;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.ScreenPayload;
+import com.segment.analytics.integrations.TrackPayload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link NielsenDCRIntegration#track} and {@link NielsenDCRIntegration#screen} per event
+ * family against a {@link NoOpAppSdk}. Run with {@code ./gradlew jmh}.
+ *
+ * <p>Events that start the playhead are paired with the event that stops it, so ticks do not pile
+ * up on the shared scheduler while the benchmark runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackBenchmark {
+
+  private NielsenDCRIntegration integration;
+  private NielsenDCRIntegration customSectionIntegration;
+
+  private TrackPayload playbackStarted;
+  private TrackPayload playbackPaused;
+  private TrackPayload playbackResumed;
+  private TrackPayload contentStarted;
+  private TrackPayload contentCompleted;
+  private TrackPayload adStarted;
+  private TrackPayload preRollAdStarted;
+  private TrackPayload adCompleted;
+  private TrackPayload nonVideoEvent;
+  private ScreenPayload screen;
+
+  @Setup
+  public void setUp() {
+    Logger logger = Logger.with(Analytics.LogLevel.NONE);
+    integration =
+        new NielsenDCRIntegration(NoOpAppSdk.create(), new NielsenDCRIntegration.Settings(), logger);
+
+    NielsenDCRIntegration.Settings settings = new NielsenDCRIntegration.Settings();
+    settings.customSectionProperty = "customSection";
+    customSectionIntegration = new NielsenDCRIntegration(NoOpAppSdk.create(), settings, logger);
+
+    Map<String, Object> nielsenOptions = new LinkedHashMap<>();
+    nielsenOptions.put("channelName", "exampleChannelName");
+    nielsenOptions.put("segB", "segmentB");
+    nielsenOptions.put("segC", "segmentC");
+    nielsenOptions.put("crossId1", "crossIdValue");
+
+    playbackStarted = track("Video Playback Started", contentProperties(), nielsenOptions);
+    playbackPaused = track("Video Playback Paused", contentProperties(), nielsenOptions);
+    playbackResumed = track("Video Playback Resumed", contentProperties(), nielsenOptions);
+    contentStarted = track("Video Content Started", contentProperties(), nielsenOptions);
+    contentCompleted = track("Video Content Completed", contentProperties(), nielsenOptions);
+    adStarted = track("Video Ad Started", adProperties("mid-roll"), nielsenOptions);
+    preRollAdStarted =
+        track(
+            "Video Ad Started",
+            adProperties("pre-roll").putValue("content", contentProperties()),
+            nielsenOptions);
+    adCompleted = track("Video Ad Completed", adProperties("mid-roll"), nielsenOptions);
+    nonVideoEvent = track("Product Viewed", new Properties().putValue("sku", "abc"), nielsenOptions);
+
+    screen =
+        new ScreenPayload.Builder()
+            .anonymousId("foo")
+            .name("Home")
+            .properties(
+                new Properties().putValue("customSection", "mySection").putValue("assetId", 1234))
+            .integration("nielsen-dcr", nielsenOptions)
+            .build();
+  }
+
+  @Benchmark
+  public void playbackStartedThenPaused() {
+    integration.track(playbackStarted);
+    integration.track(playbackPaused);
+  }
+
+  @Benchmark
+  public void playbackResumedThenPaused() {
+    integration.track(playbackResumed);
+    integration.track(playbackPaused);
+  }
+
+  @Benchmark
+  public void playbackPaused() {
+    integration.track(playbackPaused);
+  }
+
+  @Benchmark
+  public void contentStartedThenCompleted() {
+    integration.track(contentStarted);
+    integration.track(contentCompleted);
+  }
+
+  @Benchmark
+  public void adStartedThenCompleted() {
+    integration.track(adStarted);
+    integration.track(adCompleted);
+  }
+
+  @Benchmark
+  public void preRollAdStartedThenCompleted() {
+    integration.track(preRollAdStarted);
+    integration.track(adCompleted);
+  }
+
+  @Benchmark
+  public void nonVideoEvent() {
+    integration.track(nonVideoEvent);
+  }
+
+  @Benchmark
+  public void screen() {
+    integration.screen(screen);
+  }
+
+  @Benchmark
+  public void screenWithCustomSection() {
+    customSectionIntegration.screen(screen);
+  }
+
+  private static Properties contentProperties() {
+    return new Properties()
+        .putValue("session_id", "session")
+        .putValue("asset_id", 123214)
+        .putValue("title", "Look Who's Purging Now")
+        .putValue("program", "Rick and Morty")
+        .putValue("season", 2)
+        .putValue("episode", 9)
+        .putValue("genre", "cartoon")
+        .putValue("publisher", "Turner Broadcasting System")
+        .putValue("full_episode", true)
+        .putValue("position", 70)
+        .putValue("total_length", 1200)
+        .putValue("load_type", "dynamic")
+        .putValue("airdate", "2019-08-27T17:00:00.000Z");
+  }
+
+  private static Properties adProperties(String type) {
+    return new Properties()
+        .putValue("session_id", "session")
+        .putValue("asset_id", 4311)
+        .putValue("pod_id", "adSegmentA")
+        .putValue("type", type)
+        .putValue("title", "Helmet Ad")
+        .putValue("publisher", "Segment")
+        .putValue("position", 0)
+        .putValue("total_length", 20);
+  }
+
+  private static TrackPayload track(
+      String event, Properties properties, Map<String, Object> nielsenOptions) {
+    return new TrackPayload.Builder()
+        .anonymousId("foo")
+        .event(event)
+        .properties(properties)
+        .integration("nielsen-dcr", nielsenOptions)
+        .build();
+  }
+}